@@ -0,0 +1,173 @@
+package crawler.base;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Convert between the PTT article ID (AID), the file name, the web URL and the post time.
+ * <pre>
+ *  File name: M.1431234567.A.1C3
+ *  AID (base 64 of 48 bits): #1LJkW773
+ *    bit 44-47  type (M: 0, G: 1)
+ *    bit 12-43  timestamp
+ *    bit  0-11  hash (hex of the file name)
+ * </pre>
+ */
+public class AIDCodec {
+	
+	private static final String AID_TABLE = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-_";
+	private static final String WEB_URL = "https://www.ptt.cc/bbs/";
+	private static final TimeZone PTT_TIMEZONE = TimeZone.getTimeZone("Asia/Taipei");
+	
+	private static final Pattern FILENAME_PATTERN = Pattern.compile("(?<type>[MG])\\.(?<timestamp>\\d+)\\.A(\\.(?<hash>[0-9A-Fa-f]{1,3}))?");
+	private static final Pattern URL_PATTERN = Pattern.compile("/bbs/(?<board>[^/]+)/(?<filename>[MG]\\.\\d+\\.A(\\.[0-9A-Fa-f]{1,3})?)\\.html");
+	
+	/**
+	 * Decode the AID string (e.g. 1LJkW773 or #1LJkW773)
+	 * @param aid
+	 * @return The packed AID, or 0 if it is invalid
+	 */
+	public static long decode(String aid) {
+		if (aid == null) {
+			return 0;
+		}
+		if (aid.startsWith("#")) {
+			aid = aid.substring(1);
+		}
+		if (aid.length() != 8) {
+			return 0;
+		}
+		long aidu = 0;
+		for (int i=0; i<8; i++) {
+			int v = AID_TABLE.indexOf(aid.charAt(i));
+			if (v < 0) {
+				return 0;
+			}
+			aidu = (aidu << 6) | v;
+		}
+		return aidu;
+	}
+	
+	/**
+	 * Encode the packed AID to the AID string (without '#')
+	 * @param aidu
+	 * @return
+	 */
+	public static String encode(long aidu) {
+		char[] aidc = new char[8];
+		for (int i=7; i>=0; i--) {
+			aidc[i] = AID_TABLE.charAt((int) (aidu & 0x3F));
+			aidu >>>= 6;
+		}
+		return new String(aidc);
+	}
+	
+	/**
+	 * Pack the file name (e.g. M.1431234567.A.1C3)
+	 * @param filename
+	 * @return The packed AID, or 0 if it is invalid
+	 */
+	public static long fromFilename(String filename) {
+		if (filename == null) {
+			return 0;
+		}
+		Matcher m = FILENAME_PATTERN.matcher(filename);
+		if (!m.find()) {
+			return 0;
+		}
+		long type = m.group("type").equals("G") ? 1 : 0;
+		long timestamp = Long.parseLong(m.group("timestamp")) & 0xFFFFFFFFL;
+		long hash = m.group("hash") == null ? 0 : Long.parseLong(m.group("hash"), 16) & 0xFFF;
+		return (type << 44) | (timestamp << 12) | hash;
+	}
+	
+	/**
+	 * Get the file name of the packed AID
+	 * @param aidu
+	 * @return
+	 */
+	public static String toFilename(long aidu) {
+		char type = ((aidu >>> 44) & 0xF) == 1 ? 'G' : 'M';
+		return String.format("%c.%d.A.%03X", type, getTimestamp(aidu), aidu & 0xFFF);
+	}
+	
+	/**
+	 * Get the web URL of the post
+	 * @param boardName
+	 * @param aidu
+	 * @return
+	 */
+	public static String toURL(String boardName, long aidu) {
+		return WEB_URL + boardName + "/" + toFilename(aidu) + ".html";
+	}
+	
+	/**
+	 * Get the web URL of the post
+	 * @param boardName
+	 * @param aid
+	 * @return The URL, or null if the AID is invalid
+	 */
+	public static String toURL(String boardName, String aid) {
+		long aidu = decode(aid);
+		return aidu == 0 ? null : toURL(boardName, aidu);
+	}
+	
+	/**
+	 * Pack the file name in the web URL
+	 * @param url
+	 * @return The packed AID, or 0 if it is not a post URL
+	 */
+	public static long fromURL(String url) {
+		if (url == null) {
+			return 0;
+		}
+		Matcher m = URL_PATTERN.matcher(url);
+		return m.find() ? fromFilename(m.group("filename")) : 0;
+	}
+	
+	/**
+	 * Get the board name in the web URL
+	 * @param url
+	 * @return
+	 */
+	public static String getBoardFromURL(String url) {
+		if (url == null) {
+			return null;
+		}
+		Matcher m = URL_PATTERN.matcher(url);
+		return m.find() ? m.group("board") : null;
+	}
+	
+	/**
+	 * Get the Unix timestamp of the post
+	 * @param aidu
+	 * @return
+	 */
+	public static long getTimestamp(long aidu) {
+		return (aidu >>> 12) & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Get the post time
+	 * @param aidu
+	 * @return
+	 */
+	public static Date getPostTime(long aidu) {
+		return PostAnalysiser.timestamp2Date(getTimestamp(aidu));
+	}
+	
+	/**
+	 * Get the date shown in the board list (e.g. 1/05)
+	 * @param aidu
+	 * @return
+	 */
+	public static String getListDate(long aidu) {
+		SimpleDateFormat sdf = new SimpleDateFormat("M/dd");
+		sdf.setTimeZone(PTT_TIMEZONE);
+		return sdf.format(getPostTime(aidu));
+	}
+	
+}
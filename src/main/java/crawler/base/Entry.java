@@ -1,37 +1,156 @@
 package crawler.base;
 
+/**
+ * An entry of the board list, kept compact so that a whole board index fits in memory.
+ * The number, karma, date and AID are parsed into primitives and the author ID is interned.
+ */
 public class Entry {
 	
-	public String id = null;
-	public String number = null;
-	public String status = null;
-	public String karma = null;
-	public String date = null;
+	public static final byte KARMA_MAX = 100;	// 爆
+	public static final byte KARMA_MIN = -100;	// XX
+	
+	public long aid = 0;			// Packed AID (0 if unknown)
+	public int number = 0;			// 0 for the sticky entries (★)
+	public boolean sticky = false;
+	public char status = ' ';
+	public byte karma = 0;
+	public short date = 0;			// month * 100 + day (0 if unknown)
 	public String author = null;
-	public String url = null;
+	public String url = null;		// Only filled by the full entry information
 	public String title = null;
 	
 	public Entry() {
 		
 	}
 	
-	public Entry(String id, String number, String status, String karma, String date, String author, String title, String url) {
-		this.id = id;
+	public Entry(long aid, int number, boolean sticky, char status, byte karma, short date, String author, String title, String url) {
+		this.aid = aid;
 		this.number = number;
+		this.sticky = sticky;
 		this.status = status;
 		this.karma = karma;
 		this.date = date;
-		this.author = author;
+		this.author = author == null ? null : author.intern();
 		this.url = url;
 		this.title = title;
 	}
 	
+	/**
+	 * Parse the fields of a board list row
+	 * @param number e.g. 12345 or ★
+	 * @param status e.g. + or M
+	 * @param karma e.g. 12, 爆, X3 or XX
+	 * @param date e.g. 1/05
+	 * @param author
+	 * @param title
+	 * @return
+	 */
+	public static Entry parse(String number, String status, String karma, String date, String author, String title) {
+		number = number.trim();
+		status = status.trim();
+		boolean sticky = number.startsWith("★");
+		return new Entry(0, sticky ? 0 : Integer.parseInt(number), sticky,
+				status.isEmpty() ? ' ' : status.charAt(0),
+				parseKarma(karma), parseDate(date), author.trim(), title.trim(), null);
+	}
+	
+	/**
+	 * Parse the karma (爆: 100, Xn: -10n, XX: -100)
+	 * @param karma
+	 * @return
+	 */
+	public static byte parseKarma(String karma) {
+		karma = karma.trim();
+		if (karma.isEmpty()) {
+			return 0;
+		} else if (karma.equals("爆")) {
+			return KARMA_MAX;
+		} else if (karma.equals("XX")) {
+			return KARMA_MIN;
+		} else if (karma.startsWith("X")) {
+			return (byte) (-10 * Integer.parseInt(karma.substring(1).trim()));
+		}
+		return (byte) Math.min(KARMA_MAX, Integer.parseInt(karma));
+	}
+	
+	/**
+	 * Parse the list date (M/dd)
+	 * @param date
+	 * @return month * 100 + day, or 0 if it is invalid
+	 */
+	public static short parseDate(String date) {
+		int slash = date.indexOf('/');
+		if (slash < 0) {
+			return 0;
+		}
+		try {
+			int month = Integer.parseInt(date.substring(0, slash).trim());
+			int day = Integer.parseInt(date.substring(slash + 1).trim());
+			return (short) (month * 100 + day);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Get the AID string (without '#')
+	 * @return The AID, or null if it is unknown
+	 */
+	public String getAID() {
+		return aid == 0 ? null : AIDCodec.encode(aid);
+	}
+	
+	/**
+	 * Whether the post has been deleted (the author is shown as -)
+	 * @return
+	 */
+	public boolean isDeleted() {
+		return "-".equals(author);
+	}
+	
+	public String getNumberString() {
+		return sticky ? "★" : Integer.toString(number);
+	}
+	
+	public String getKarmaString() {
+		if (karma == 0) {
+			return "";
+		} else if (karma >= KARMA_MAX) {
+			return "爆";
+		} else if (karma <= KARMA_MIN) {
+			return "XX";
+		} else if (karma < 0) {
+			return "X" + (-karma / 10);
+		}
+		return Byte.toString(karma);
+	}
+	
+	/**
+	 * Get the list date (M/dd)
+	 * @return
+	 */
+	public String getDateString() {
+		return date == 0 ? "" : String.format("%d/%02d", date / 100, date % 100);
+	}
+	
+	/**
+	 * Whether two entries are the same row of the board list (sticky entries have no number)
+	 * @param other
+	 * @return
+	 */
+	public boolean isSameRow(Entry other) {
+		if (sticky != other.sticky || number != other.number) {
+			return false;
+		}
+		return !sticky || (author.equals(other.author) && title.equals(other.title));
+	}
+	
 	public String toFullString() {
-		return String.format("ID: %8s  Num: %-5s  Status: %1s  Karma: %-2s  Date: %5s  Author: %-13s Title: %s", id, number, status, karma, date, author, title);
+		return String.format("ID: %8s  Num: %-5s  Status: %1s  Karma: %-2s  Date: %5s  Author: %-13s Title: %s", getAID(), getNumberString(), status, getKarmaString(), getDateString(), author, title);
 	}
 	
 	public String toString() {
-		return String.format("#%8s %5s %5s %-13s %s", id, number, date, author, title);
+		return String.format("#%8s %5s %5s %-13s %s", getAID(), getNumberString(), getDateString(), author, title);
 	}
 	
 }
@@ -60,10 +60,10 @@ public class PostAnalysiser {
 		"M\\.(?<timestamp>\\d+)\\."
 	);
 	
-	// Example: Sun Mar 22 23:43:00 2015
-	private static final SimpleDateFormat postSDF = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.ENGLISH);
-	private static final SimpleDateFormat postSDF2 = new SimpleDateFormat("EEE MMMd HH:mm:ss yyyy", Locale.ENGLISH);
-	private static final SimpleDateFormat replySDF = new SimpleDateFormat("yyyy/MM/dd HH:mm");
+	// Example: Sun Mar 22 23:43:00 2015 (SimpleDateFormat is not thread-safe, and the posts are parsed by several workers)
+	private static final ThreadLocal<SimpleDateFormat> postSDF = ThreadLocal.withInitial(() -> new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.ENGLISH));
+	private static final ThreadLocal<SimpleDateFormat> postSDF2 = ThreadLocal.withInitial(() -> new SimpleDateFormat("EEE MMMd HH:mm:ss yyyy", Locale.ENGLISH));
+	private static final ThreadLocal<SimpleDateFormat> replySDF = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy/MM/dd HH:mm"));
 	
 	public static Post parsePost(Entry entry, String rawText) {
 		
@@ -71,7 +71,7 @@ public class PostAnalysiser {
 		
 		String content = rawText;
 		
-		post.setID(entry.id);
+		post.setID(entry.getAID());
 		post.setAuthor(entry.author);
 		post.setUrl(entry.url);
 		
@@ -90,10 +90,10 @@ public class PostAnalysiser {
 			String timeStr = matcher.group("time").trim();
 			Date postTime = null;
 			try {
-				postTime = postSDF.parse(timeStr);
+				postTime = postSDF.get().parse(timeStr);
 			} catch (ParseException e) {
 				try {
-					postTime = postSDF2.parse(timeStr);
+					postTime = postSDF2.get().parse(timeStr);
 				} catch (ParseException e2) {
 					 
 				}
@@ -171,7 +171,7 @@ public class PostAnalysiser {
 						String rdstr = m.group();
 						try {
 							rdstr = year + "/" + rdstr;
-							ReplyDate = replySDF.parse(rdstr);
+							ReplyDate = replySDF.get().parse(rdstr);
 						} catch (ParseException e) {
 							log.warn("Fail to parae reply date. (\"" + temp + "\")");
 						}
@@ -196,7 +196,7 @@ public class PostAnalysiser {
 			
 		} catch (Exception e) {
 			
-			log.warn("Fail to parse the post. (PostID: " + entry.id + ") " + e.toString());
+			log.warn("Fail to parse the post. (PostID: " + entry.getAID() + ") " + e.toString());
 			//e.printStackTrace();
 			
 			post.setContent(content);
@@ -234,7 +234,7 @@ public class PostAnalysiser {
 				Date postTime = null;
 				try {
 					postTime = getTimeFromPttURL(url);
-					postTime = postSDF.parse(value.trim());
+					postTime = postSDF.get().parse(value.trim());
 					Calendar cal = Calendar.getInstance();
 				    cal.setTime(postTime);
 				    year = cal.get(Calendar.YEAR);
@@ -288,7 +288,7 @@ public class PostAnalysiser {
 			reply.setContent(pushContent);
 			try {
 				pushDatetime = pushDatetime.replaceAll("\\d+(\\.\\d+)+", "").trim();
-				reply.setPostTime(replySDF.parse(year + "/" + pushDatetime));
+				reply.setPostTime(replySDF.get().parse(year + "/" + pushDatetime));
 			} catch (Exception e) {
 				log.warn(e.getMessage());
 			}
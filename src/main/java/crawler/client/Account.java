@@ -0,0 +1,75 @@
+package crawler.client;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A PTT account and the number of sessions it may keep at the same time
+ */
+public class Account {
+	
+	public static final int DEFAULT_MAX_SESSIONS = 3;
+	
+	private final String username;
+	private final String password;
+	private final int maxSessions;
+	
+	public Account(String username, String password, int maxSessions) {
+		if (maxSessions <= 0) {
+			throw new IllegalArgumentException("An account must allow at least one session.");
+		}
+		this.username = username;
+		this.password = password;
+		this.maxSessions = maxSessions;
+	}
+	
+	/**
+	 * Load the accounts file. Each line is "username password [maxSessions]"; lines starting with # are ignored.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Account> load(String path) throws IOException {
+		List<Account> accounts = new ArrayList<Account>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (fields.length < 2) {
+					throw new IOException("Not a valid account: " + line);
+				}
+				int maxSessions = fields.length > 2 ? Integer.parseInt(fields[2]) : DEFAULT_MAX_SESSIONS;
+				accounts.add(new Account(fields[0], fields[1], maxSessions));
+			}
+		} finally {
+			br.close();
+		}
+		return accounts;
+	}
+	
+	public String getUsername() {
+		return username;
+	}
+	
+	public String getPassword() {
+		return password;
+	}
+	
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+	
+	public String toString() {
+		return username + " (" + maxSessions + " sessions)";
+	}
+	
+}
@@ -0,0 +1,206 @@
+package crawler.client;
+
+import java.util.Arrays;
+
+/**
+ * Flat cell buffer of the terminal.
+ * Each cell is an int which packs the code point, the width flags and the colour/attribute bits:
+ * <pre>
+ *  bit  0-20  code point
+ *  bit    21  wide (the left half of a full-width glyph)
+ *  bit    22  filler (the right half of a full-width glyph, not a character)
+ *  bit 23-25  foreground colour (0-7)
+ *  bit 26-28  background colour (0-7)
+ *  bit    29  bold
+ *  bit    30  blink
+ * </pre>
+ */
+public class CellBuffer {
+	
+	public static final int CODE_MASK = 0x1FFFFF;
+	public static final int WIDE = 1 << 21;
+	public static final int FILLER = 1 << 22;
+	public static final int FG_SHIFT = 23;
+	public static final int BG_SHIFT = 26;
+	public static final int COLOR_MASK = 0x7;
+	public static final int BOLD = 1 << 29;
+	public static final int BLINK = 1 << 30;
+	public static final int ATTR_MASK = ~(CODE_MASK | WIDE | FILLER);
+	
+	/** Light gray on black */
+	public static final int DEFAULT_ATTR = 7 << FG_SHIFT;
+	public static final int BLANK = DEFAULT_ATTR | ' ';
+	
+	private final int rows;
+	private final int cols;
+	private final int[] cells;
+	
+	// Rows modified since the last clearDirty()
+	private final boolean[] dirty;
+	
+	public CellBuffer(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.cells = new int[rows * cols];
+		this.dirty = new boolean[rows];
+		Arrays.fill(cells, BLANK);
+		Arrays.fill(dirty, true);
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getCols() {
+		return cols;
+	}
+	
+	public int get(int row, int col) {
+		return cells[row * cols + col];
+	}
+	
+	public void set(int row, int col, int cell) {
+		cells[row * cols + col] = cell;
+		dirty[row] = true;
+	}
+	
+	/**
+	 * Fill the cells [fromCol, toCol) of the row with the blank cell
+	 * @param row
+	 * @param fromCol
+	 * @param toCol
+	 * @param blank
+	 */
+	public void clearRow(int row, int fromCol, int toCol, int blank) {
+		int base = row * cols;
+		Arrays.fill(cells, base + fromCol, base + toCol, blank);
+		dirty[row] = true;
+	}
+	
+	/**
+	 * Fill the rows [fromRow, toRow) with the blank cell
+	 * @param fromRow
+	 * @param toRow
+	 * @param blank
+	 */
+	public void clearRows(int fromRow, int toRow, int blank) {
+		Arrays.fill(cells, fromRow * cols, toRow * cols, blank);
+		Arrays.fill(dirty, fromRow, toRow, true);
+	}
+	
+	/**
+	 * Copy a whole row to another row
+	 * @param srcRow
+	 * @param dstRow
+	 */
+	public void copyRow(int srcRow, int dstRow) {
+		System.arraycopy(cells, srcRow * cols, cells, dstRow * cols, cols);
+		dirty[dstRow] = true;
+	}
+	
+	/**
+	 * Copy the first rows of the buffer
+	 * @param rowCount
+	 * @return
+	 */
+	public int[] copyRows(int rowCount) {
+		int[] copy = new int[rowCount * cols];
+		System.arraycopy(cells, 0, copy, 0, copy.length);
+		return copy;
+	}
+	
+	/**
+	 * Build the text of the row (fillers are skipped)
+	 * @param row
+	 * @return
+	 */
+	public String getRowText(int row) {
+		StringBuilder sb = new StringBuilder(cols);
+		appendText(sb, cells, row * cols, (row + 1) * cols);
+		return sb.toString();
+	}
+	
+	public boolean isDirty(int row) {
+		return dirty[row];
+	}
+	
+	public void clearDirty(int row) {
+		dirty[row] = false;
+	}
+	
+	public static int codePoint(int cell) {
+		return cell & CODE_MASK;
+	}
+	
+	public static boolean isFiller(int cell) {
+		return (cell & FILLER) != 0;
+	}
+	
+	public static int foreground(int cell) {
+		return (cell >>> FG_SHIFT) & COLOR_MASK;
+	}
+	
+	public static int background(int cell) {
+		return (cell >>> BG_SHIFT) & COLOR_MASK;
+	}
+	
+	public static boolean isBold(int cell) {
+		return (cell & BOLD) != 0;
+	}
+	
+	public static boolean isBlink(int cell) {
+		return (cell & BLINK) != 0;
+	}
+	
+	/**
+	 * Append the text of the cells (fillers are skipped)
+	 * @param sb
+	 * @param cells
+	 * @param from
+	 * @param to
+	 */
+	public static void appendText(StringBuilder sb, int[] cells, int from, int to) {
+		for (int i=from; i<to; i++) {
+			int cell = cells[i];
+			if ((cell & FILLER) == 0) {
+				sb.appendCodePoint(cell & CODE_MASK);
+			}
+		}
+	}
+	
+	/**
+	 * Append the cells with ANSI SGR sequences (for reconstructing ANSI art)
+	 * @param sb
+	 * @param cells
+	 * @param from
+	 * @param to
+	 */
+	public static void appendAnsi(StringBuilder sb, int[] cells, int from, int to) {
+		int attr = DEFAULT_ATTR;
+		for (int i=from; i<to; i++) {
+			int cell = cells[i];
+			if ((cell & FILLER) != 0) {
+				continue;
+			}
+			int cellAttr = cell & ATTR_MASK;
+			if (cellAttr != attr) {
+				sb.append("\u001B[0");
+				if (isBold(cell)) {
+					sb.append(";1");
+				}
+				if (isBlink(cell)) {
+					sb.append(";5");
+				}
+				sb.append(';').append(30 + foreground(cell));
+				sb.append(';').append(40 + background(cell));
+				sb.append('m');
+				attr = cellAttr;
+			}
+			sb.appendCodePoint(cell & CODE_MASK);
+		}
+		if (attr != DEFAULT_ATTR) {
+			sb.append("\u001B[m");
+		}
+	}
+	
+}
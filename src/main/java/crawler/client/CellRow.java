@@ -0,0 +1,86 @@
+package crawler.client;
+
+/**
+ * Zero-copy text view of one row of a cell array, which can be passed to a regex matcher directly.
+ * The filler cells of the full-width glyphs are skipped.
+ */
+public class CellRow implements CharSequence {
+	
+	private final int[] cells;
+	private final int offset;
+	private final int cols;
+	
+	// Offsets of the non-filler cells (null if the row has no filler)
+	private int[] index = null;
+	private int length = -1;
+	
+	public CellRow(int[] cells, int offset, int cols) {
+		this.cells = cells;
+		this.offset = offset;
+		this.cols = cols;
+	}
+	
+	private void buildIndex() {
+		int n = 0;
+		for (int i=0; i<cols; i++) {
+			if (!CellBuffer.isFiller(cells[offset + i])) {
+				n++;
+			}
+		}
+		if (n != cols) {
+			int[] idx = new int[n];
+			for (int i=0, j=0; i<cols; i++) {
+				if (!CellBuffer.isFiller(cells[offset + i])) {
+					idx[j++] = offset + i;
+				}
+			}
+			index = idx;
+		}
+		length = n;
+	}
+	
+	@Override
+	public int length() {
+		if (length < 0) {
+			buildIndex();
+		}
+		return length;
+	}
+	
+	@Override
+	public char charAt(int i) {
+		if (length < 0) {
+			buildIndex();
+		}
+		if (i < 0 || i >= length) {
+			throw new IndexOutOfBoundsException("index " + i + ", length " + length);
+		}
+		int cell = cells[index == null ? offset + i : index[i]];
+		return (char) CellBuffer.codePoint(cell);
+	}
+	
+	/**
+	 * Get the packed cell of the i-th character
+	 * @param i
+	 * @return
+	 */
+	public int cellAt(int i) {
+		if (length < 0) {
+			buildIndex();
+		}
+		return cells[index == null ? offset + i : index[i]];
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(cols);
+		CellBuffer.appendText(sb, cells, offset, offset + cols);
+		return sb.toString();
+	}
+	
+}
@@ -0,0 +1,243 @@
+package crawler.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.log4j.Logger;
+
+import crawler.base.AIDCodec;
+
+/**
+ * The persistent frontier of a board crawl, so that a restarted crawl skips the finished entries.
+ * <p>
+ * Every finished entry is appended to a journal ({@code <number> <AID>} per line), which is forced to the disk in batches.
+ * A memory-mapped bitmap indexed by the entry number answers {@link #isDone(int)} in O(1).
+ * Its header records how much of the journal it covers, so an open replays only the tail written after the last sync;
+ * the bitmap is rebuilt from the journal if it is missing or does not match.
+ * <p>
+ * The numbers are only valid while no earlier post is purged from the board, so the journal covers one crawl:
+ * it is cleared when the crawl completes, and its anchor (the latest entry when it was started) is checked before resuming.
+ */
+public class CrawlJournal implements Closeable {
+	
+	private static final Logger log = Logger.getLogger(CrawlJournal.class);
+	
+	public static final String JOURNAL_FILE = "journal.txt";
+	public static final String BITMAP_FILE = "done.bitmap";
+	
+	private static final int SYNC_RECORDS = 64;			// Force the journal after so many records
+	private static final long SYNC_INTERVAL = 1000;		// or so many milliseconds
+	private static final int HEADER_SIZE = 64;			// The covered journal length, the anchor number and AID, then reserved
+	private static final int ANCHOR_NUMBER = 8;
+	private static final int ANCHOR_AID = 16;
+	private static final int INITIAL_ENTRIES = 1 << 20;
+	
+	private final RandomAccessFile journalFile;
+	private final FileChannel journal;
+	private final RandomAccessFile bitmapFile;
+	private MappedByteBuffer bitmap;
+	private int doneCount = 0;
+	private int unsynced = 0;
+	private long syncTime = System.currentTimeMillis();
+	
+	private CrawlJournal(File dir) throws IOException {
+		dir.mkdirs();
+		journalFile = new RandomAccessFile(new File(dir, JOURNAL_FILE), "rw");
+		journal = journalFile.getChannel();
+		bitmapFile = new RandomAccessFile(new File(dir, BITMAP_FILE), "rw");
+		bitmap = map(Math.max(bitmapFile.length(), HEADER_SIZE + INITIAL_ENTRIES / 8));
+	}
+	
+	/**
+	 * Open the journal of a crawl (the files are created in the folder if they do not exist)
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	public static CrawlJournal open(File dir) throws IOException {
+		CrawlJournal crawlJournal = new CrawlJournal(dir);
+		try {
+			crawlJournal.recover();
+		} catch (IOException e) {
+			crawlJournal.close();
+			throw e;
+		}
+		return crawlJournal;
+	}
+	
+	/**
+	 * Whether the entry has been finished by this or an earlier run
+	 * @param number
+	 * @return
+	 */
+	public synchronized boolean isDone(int number) {
+		int index = HEADER_SIZE + (number >>> 3);
+		return number > 0 && index < bitmap.capacity() && (bitmap.get(index) & (1 << (number & 7))) != 0;
+	}
+	
+	/**
+	 * Record a finished entry (a downloaded or deleted post)
+	 * @param number
+	 * @param aid The packed AID (0 if unknown)
+	 * @throws IOException
+	 */
+	public synchronized void markDone(int number, long aid) throws IOException {
+		if (number <= 0 || isDone(number)) {
+			return;
+		}
+		String record = number + " " + (aid == 0 ? "-" : AIDCodec.encode(aid)) + "\n";
+		ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.US_ASCII));
+		while (buffer.hasRemaining()) {
+			journal.write(buffer);
+		}
+		setBit(number);
+		if (++unsynced >= SYNC_RECORDS || System.currentTimeMillis() - syncTime >= SYNC_INTERVAL) {
+			sync();
+		}
+	}
+	
+	/**
+	 * The number of the finished entries
+	 * @return
+	 */
+	public synchronized int getDoneCount() {
+		return doneCount;
+	}
+	
+	/**
+	 * The number of the entry anchoring the journal
+	 * @return 0 if not set
+	 */
+	public synchronized int getAnchorNumber() {
+		return bitmap.getInt(ANCHOR_NUMBER);
+	}
+	
+	/**
+	 * The packed AID of the entry anchoring the journal
+	 * @return 0 if not set
+	 */
+	public synchronized long getAnchorAID() {
+		return bitmap.getLong(ANCHOR_AID);
+	}
+	
+	/**
+	 * Anchor the journal at an entry, whose number must still hold the same post when the crawl is resumed
+	 * @param number
+	 * @param aid The packed AID
+	 * @throws IOException
+	 */
+	public synchronized void setAnchor(int number, long aid) throws IOException {
+		bitmap.putInt(ANCHOR_NUMBER, number);
+		bitmap.putLong(ANCHOR_AID, aid);
+		sync();	// With the covered length, so a crash before the next record does not drop the anchor
+	}
+	
+	/**
+	 * Forget all the finished entries and the anchor (the crawl is complete, or the entries have been renumbered)
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException {
+		journal.truncate(0);
+		journal.position(0);
+		for (int i=0; i<bitmap.capacity(); i++) {
+			bitmap.put(i, (byte) 0);
+		}
+		doneCount = 0;
+		sync();
+	}
+	
+	/**
+	 * Force the journal and then the bitmap to the disk
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		journal.force(false);
+		bitmap.putLong(0, journal.position());
+		bitmap.force();
+		unsynced = 0;
+		syncTime = System.currentTimeMillis();
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (journal.isOpen()) {
+				sync();
+			}
+		} finally {
+			journalFile.close();
+			bitmapFile.close();
+		}
+	}
+	
+	/**
+	 * Replay the journal after the part covered by the bitmap (all of it if the bitmap does not match)
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		
+		long length = journal.size();
+		long covered = bitmap.getLong(0);
+		if (covered <= 0 || covered > length) {
+			if (covered != 0) {
+				log.warn("The bitmap does not match the journal, rebuild it.");
+			}
+			// Keep the anchor in the header
+			for (int i=HEADER_SIZE; i<bitmap.capacity(); i++) {
+				bitmap.put(i, (byte) 0);
+			}
+			covered = 0;
+		}
+		
+		// Replay the complete records, and drop a record torn by a crash
+		ByteBuffer tail = ByteBuffer.allocate((int) (length - covered));
+		while (tail.hasRemaining()) {
+			if (journal.read(tail, covered + tail.position()) < 0) {
+				break;
+			}
+		}
+		String text = new String(tail.array(), StandardCharsets.US_ASCII);
+		int end = text.lastIndexOf('\n') + 1;
+		for (String record : text.substring(0, end).split("\n")) {
+			int space = record.indexOf(' ');
+			if (space > 0) {
+				setBit(Integer.parseInt(record.substring(0, space)));
+			}
+		}
+		journal.truncate(covered + end);
+		journal.position(covered + end);
+		
+		// The bits of the records after the last sync may have reached the disk already, so count them all
+		doneCount = 0;
+		for (int i=HEADER_SIZE; i<bitmap.capacity(); i++) {
+			doneCount += Integer.bitCount(bitmap.get(i) & 0xFF);
+		}
+		sync();
+		
+		log.info("Crawl journal: " + doneCount + " entries done");
+	}
+	
+	private void setBit(int number) throws IOException {
+		int index = HEADER_SIZE + (number >>> 3);
+		if (index >= bitmap.capacity()) {
+			bitmap.force();
+			bitmap = map(Math.max((long) bitmap.capacity() * 2, index + 1L));
+		}
+		byte bits = bitmap.get(index);
+		if ((bits & (1 << (number & 7))) == 0) {
+			bitmap.put(index, (byte) (bits | (1 << (number & 7))));
+			doneCount++;
+		}
+	}
+	
+	private MappedByteBuffer map(long size) throws IOException {
+		return bitmapFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+	
+}
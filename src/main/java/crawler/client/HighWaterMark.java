@@ -0,0 +1,90 @@
+package crawler.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import crawler.base.AIDCodec;
+import crawler.base.Entry;
+
+/**
+ * The newest post of a board crawled by the last complete run, so that an incremental crawl stops there.
+ * <p>
+ * The mark is anchored on the AID and its post time instead of the entry number, because the numbers shift
+ * when deleted posts are purged. A walk from the newest post has reached the mark at the post itself,
+ * or at the first older post if the marked post has disappeared.
+ */
+public class HighWaterMark {
+	
+	public static final String MARK_FILE = "highwater.txt";
+	
+	private final File file;
+	private long aid = 0;
+	
+	private HighWaterMark(File file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Load the mark of the results folder
+	 * @param dir
+	 * @return The mark (not set if the board has not been crawled completely)
+	 * @throws IOException
+	 */
+	public static HighWaterMark load(File dir) throws IOException {
+		HighWaterMark mark = new HighWaterMark(new File(dir, MARK_FILE));
+		if (mark.file.exists()) {
+			String[] fields = new String(Files.readAllBytes(mark.file.toPath()), StandardCharsets.US_ASCII).trim().split("\\s+");
+			mark.aid = AIDCodec.decode(fields[0]);
+		}
+		return mark;
+	}
+	
+	public boolean isSet() {
+		return aid != 0;
+	}
+	
+	/**
+	 * Get the packed AID of the marked post
+	 * @return 0 if the mark is not set
+	 */
+	public long getAID() {
+		return aid;
+	}
+	
+	/**
+	 * Get the Unix timestamp of the marked post
+	 * @return
+	 */
+	public long getTimestamp() {
+		return AIDCodec.getTimestamp(aid);
+	}
+	
+	/**
+	 * Whether the entry is the marked post or older than it (the AID of a deleted entry is not read, so it never reaches the mark)
+	 * @param entry
+	 * @return
+	 */
+	public boolean isReached(Entry entry) {
+		if (!isSet() || entry.aid == 0 || entry.isDeleted()) {
+			return false;
+		}
+		return entry.aid == aid || AIDCodec.getTimestamp(entry.aid) < getTimestamp();
+	}
+	
+	/**
+	 * Move the mark and save it (written to a temporary file and renamed, so a crash keeps the old mark)
+	 * @param aid
+	 * @throws IOException
+	 */
+	public void update(long aid) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		String line = AIDCodec.encode(aid) + " " + AIDCodec.getTimestamp(aid) + "\n";
+		Files.write(temp.toPath(), line.getBytes(StandardCharsets.US_ASCII));
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.aid = aid;
+	}
+	
+}
@@ -0,0 +1,141 @@
+package crawler.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue several keystroke commands, send them in one buffered write,
+ * and match the expected screens in order as the output streams in.
+ * <p>
+ * PTT flushes its output only when no more input is pending, so the screens of the intermediate commands
+ * may be coalesced into the frame of a later command. A frame which matches a later step marks the steps
+ * in between as passed (without a frame), and one frame may satisfy several consecutive steps.
+ */
+public class KeySequencer {
+	
+	private static class Step {
+		final String keys;
+		final ScreenMatcher expected;
+		Step(String keys, ScreenMatcher expected) {
+			this.keys = keys;
+			this.expected = expected;
+		}
+	}
+	
+	private final PTTClient client;
+	private final List<Step> steps = new ArrayList<Step>();
+	private final List<ScreenSnapshot> frames = new ArrayList<ScreenSnapshot>();
+	
+	public KeySequencer(PTTClient client) {
+		this.client = client;
+	}
+	
+	/**
+	 * Queue a command without waiting for its screen
+	 * @param keys
+	 * @return
+	 */
+	public KeySequencer then(String keys) {
+		return then(keys, null);
+	}
+	
+	/**
+	 * Queue a command and the screen expected after it
+	 * @param keys
+	 * @param expected
+	 * @return
+	 */
+	public KeySequencer then(String keys, ScreenMatcher expected) {
+		steps.add(new Step(keys, expected));
+		return this;
+	}
+	
+	/**
+	 * Send all the queued commands and match the expected screens in order
+	 * @param timeout
+	 * @return The frame matched by each step (null if the step has no expectation, was coalesced or timed out)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public ScreenSnapshot[] run(int timeout) throws IOException, InterruptedException {
+		
+		ScreenSnapshot[] matched = new ScreenSnapshot[steps.size()];
+		final LinkedBlockingQueue<ScreenSnapshot> queue = new LinkedBlockingQueue<ScreenSnapshot>();
+		PTTClient.FrameListener listener = new PTTClient.FrameListener() {
+			@Override
+			public void onFrame(ScreenSnapshot frame) {
+				queue.add(frame);
+			}
+		};
+		
+		client.addFrameListener(listener);
+		try {
+			
+			StringBuilder keys = new StringBuilder();
+			for (Step step : steps) {
+				keys.append(step.keys);
+			}
+			client.send(keys.toString());
+			
+			long endTime = System.currentTimeMillis() + timeout;
+			int next = nextExpectation(0);
+			
+			while (next < steps.size()) {
+				
+				long waitTime = endTime - System.currentTimeMillis();
+				ScreenSnapshot frame = waitTime > 0 ? queue.poll(waitTime, TimeUnit.MILLISECONDS) : null;
+				if (frame == null) {
+					break;	// Timeout
+				}
+				frames.add(frame);
+				
+				// The earliest step matched by this frame (later steps mean the screens were coalesced)
+				int hit = -1;
+				for (int i = next; i < steps.size() && hit < 0; i++) {
+					if (steps.get(i).expected != null && steps.get(i).expected.match(frame) != null) {
+						hit = i;
+					}
+				}
+				if (hit < 0) {
+					continue;
+				}
+				
+				// The same frame may satisfy the following steps too
+				next = hit;
+				while (next < steps.size() &&
+					  (steps.get(next).expected == null || steps.get(next).expected.match(frame) != null)) {
+					if (steps.get(next).expected != null) {
+						matched[next] = frame;
+					}
+					next++;
+				}
+				next = nextExpectation(next);
+				
+			}
+			
+		} finally {
+			client.removeFrameListener(listener);
+		}
+		
+		return matched;
+	}
+	
+	/**
+	 * Get all the frames observed during the last run
+	 * @return
+	 */
+	public List<ScreenSnapshot> getFrames() {
+		return frames;
+	}
+	
+	private int nextExpectation(int from) {
+		while (from < steps.size() && steps.get(from).expected == null) {
+			from++;
+		}
+		return from;
+	}
+	
+}
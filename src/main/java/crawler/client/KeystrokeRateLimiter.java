@@ -0,0 +1,62 @@
+package crawler.client;
+
+/**
+ * Token bucket of keystrokes shared by all the sessions, to stay under the flood limits of PTT.
+ * Tokens are refilled at the given rate up to the burst size; a sender which finds the bucket empty
+ * reserves its tokens and sleeps until they have been refilled.
+ * A write longer than the burst is charged in full, so it waits longer instead of exceeding the rate.
+ */
+public class KeystrokeRateLimiter {
+	
+	private final double rate;		// Tokens per nanosecond
+	private final double burst;
+	private double tokens;
+	private long lastTime;
+	
+	/**
+	 * @param keysPerSecond
+	 * @param burst The maximum number of keystrokes sent at once without waiting
+	 */
+	public KeystrokeRateLimiter(double keysPerSecond, int burst) {
+		if (keysPerSecond <= 0 || burst <= 0) {
+			throw new IllegalArgumentException("The rate and the burst must be positive.");
+		}
+		this.rate = keysPerSecond / 1e9;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastTime = System.nanoTime();
+	}
+	
+	/**
+	 * Take the tokens of the keystrokes, waiting until they are available
+	 * @param keys
+	 * @throws InterruptedException
+	 */
+	public void acquire(int keys) throws InterruptedException {
+		long waitTime = reserve(keys);
+		if (waitTime > 0) {
+			Thread.sleep(waitTime / 1000000, (int) (waitTime % 1000000));
+		}
+	}
+	
+	/**
+	 * Take the tokens (the balance may become negative)
+	 * @param keys
+	 * @return Nanoseconds to wait until the balance is refilled
+	 */
+	private synchronized long reserve(int keys) {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastTime) * rate);
+		lastTime = now;
+		tokens -= keys;
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / rate);
+	}
+	
+	/**
+	 * @return Keystrokes per second
+	 */
+	public double getRate() {
+		return rate * 1e9;
+	}
+	
+}
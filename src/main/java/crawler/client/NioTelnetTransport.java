@@ -0,0 +1,502 @@
+package crawler.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Non-blocking telnet transport: one selector thread reads every session,
+ * strips and answers the telnet commands in place, decodes UTF-8 and hands the characters to the session.
+ * <p>
+ * Only the options PTT asks for are negotiated (BINARY, ECHO, SGA, TTYPE and NAWS); the others are refused.
+ * The state of each option is kept by the Q method of RFC 1143, so a request is answered only when it changes the state
+ * and a server which echoes the replies can not start a negotiation loop.
+ * <p>
+ * The buffers are flipped and positioned through {@link Buffer}, because the covariant overrides of {@link ByteBuffer}
+ * do not exist on Java 8.
+ */
+public class NioTelnetTransport {
+	
+	private static final Logger log = Logger.getLogger(NioTelnetTransport.class);
+	
+	private static final int BUFFER_SIZE = 4096;
+	private static final int MAX_READS = 4;		// Per connection and selector pass, so a fast connection does not starve the others
+	private static final int CONNECT_TIMEOUT = 10 * 1000;
+	
+	// Telnet commands
+	private static final int IAC = 255, DONT = 254, DO = 253, WONT = 252, WILL = 251, SB = 250, SE = 240;
+	
+	// Telnet options
+	private static final int OPT_BINARY = 0, OPT_ECHO = 1, OPT_SGA = 3, OPT_TTYPE = 24, OPT_NAWS = 31;
+	private static final int TTYPE_IS = 0, TTYPE_SEND = 1;
+	private static final String TERMINAL_TYPE = "VT100";
+	
+	// Parser states
+	private static final int STATE_DATA = 0, STATE_IAC = 1, STATE_OPTION = 2, STATE_SB = 3, STATE_SB_IAC = 4;
+	
+	// Option states (RFC 1143)
+	private static final byte Q_NO = 0, Q_YES = 1, Q_WANTNO = 2, Q_WANTYES = 3;
+	
+	/**
+	 * Receive the data of a connection (called on the selector thread)
+	 */
+	public static interface Handler {
+		
+		/**
+		 * Decoded characters
+		 */
+		void onData(char[] cb, int off, int len);
+		
+		/**
+		 * The input available for now has been read (the rest of a busy connection may follow on the next pass)
+		 */
+		void onDrained();
+		
+		/**
+		 * The connection has been closed (called once)
+		 */
+		void onClosed();
+		
+	}
+	
+	private static NioTelnetTransport instance = null;
+	
+	private final Selector selector;
+	private final Thread ioThread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * Get the transport shared by all the sessions of the process
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized NioTelnetTransport getDefault() throws IOException {
+		if (instance == null) {
+			instance = new NioTelnetTransport();
+		}
+		return instance;
+	}
+	
+	public NioTelnetTransport() throws IOException {
+		selector = Selector.open();
+		ioThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		});
+		ioThread.setName("Telnet selector");
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+	
+	/**
+	 * Connect and register the connection on the selector
+	 * @param host
+	 * @param port
+	 * @param cols The window size reported by NAWS
+	 * @param rows
+	 * @param handler
+	 * @return
+	 * @throws IOException
+	 */
+	public Connection open(String host, int port, int cols, int rows, Handler handler) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			channel.socket().setTcpNoDelay(true);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		final Connection connection = new Connection(channel, cols, rows, handler);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+				} catch (IOException e) {
+					log.warn("Fail to register the connection: " + e.getMessage());
+					connection.closeNow();
+				}
+			}
+		});
+		return connection;
+	}
+	
+	/**
+	 * Run the task on the selector thread
+	 * @param task
+	 */
+	private void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+	
+	private void loop() {
+		while (true) {
+			try {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+					} catch (IOException e) {
+						log.debug("Connection closed: " + e.getMessage());
+						connection.closeNow();
+					}
+				}
+			} catch (Exception e) {
+				log.error("Telnet selector error", e);
+			}
+		}
+	}
+	
+	/**
+	 * A telnet connection served by the selector thread
+	 */
+	public class Connection {
+		
+		private final SocketChannel channel;
+		private final Handler handler;
+		private final int cols, rows;
+		private SelectionKey key = null;
+		private volatile boolean isClosed = false;
+		
+		// Raw bytes are filtered in place: [0, dataEnd) holds telnet data not decoded yet (a partial UTF-8 character)
+		private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private int dataEnd = 0;
+		private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		// Telnet parser
+		private int state = STATE_DATA;
+		private int command = 0;
+		private final ByteBuffer sb = ByteBuffer.allocate(64);
+		private final byte[] us = new byte[256];	// The options enabled on our side (WILL/WONT)
+		private final byte[] him = new byte[256];	// The options enabled on the server side (DO/DONT)
+		
+		private final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<ByteBuffer>();
+		
+		private final OutputStream outputStream = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				Connection.this.write(b, off, len);
+			}
+		};
+		
+		private Connection(SocketChannel channel, int cols, int rows, Handler handler) {
+			this.channel = channel;
+			this.cols = cols;
+			this.rows = rows;
+			this.handler = handler;
+		}
+		
+		/**
+		 * The data written to the stream is escaped (IAC IAC) and sent by the selector thread
+		 * @return
+		 */
+		public OutputStream getOutputStream() {
+			return outputStream;
+		}
+		
+		/**
+		 * Queue the data (escaped) to be sent
+		 * @param b
+		 * @param off
+		 * @param len
+		 * @throws IOException
+		 */
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (isClosed) {
+				throw new IOException("The connection has been closed.");
+			}
+			ByteBuffer buf = ByteBuffer.allocate(len * 2);
+			for (int i = off; i < off + len; i++) {
+				buf.put(b[i]);
+				if ((b[i] & 0xFF) == IAC) {
+					buf.put(b[i]);
+				}
+			}
+			((Buffer) buf).flip();
+			queue(buf);
+		}
+		
+		/**
+		 * Close the connection (asynchronously)
+		 */
+		public void close() {
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					closeNow();
+				}
+			});
+		}
+		
+		private void queue(ByteBuffer buf) {
+			out.add(buf);
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (IOException e) {
+						closeNow();
+					}
+				}
+			});
+		}
+		
+		private void flush() throws IOException {
+			if (isClosed) {
+				return;
+			}
+			ByteBuffer buf;
+			while ((buf = out.peek()) != null) {
+				channel.write(buf);
+				if (buf.hasRemaining()) {
+					break;
+				}
+				out.poll();
+			}
+			if (key != null && key.isValid()) {
+				key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+		
+		private void read() throws IOException {
+			
+			int n = 0;
+			for (int reads = 0; reads < MAX_READS && (n = channel.read(in)) > 0; reads++) {
+				
+				// Strip the telnet commands from the new bytes in place
+				int end = in.position();
+				for (int i = end - n; i < end; i++) {
+					int b = in.get(i) & 0xFF;
+					if (parse(b)) {
+						in.put(dataEnd++, (byte) b);
+					}
+				}
+				
+				// Decode the data; an incomplete character is kept at the front
+				((Buffer) in).position(0).limit(dataEnd);
+				decoder.decode(in, chars, false);
+				in.compact();
+				dataEnd = in.position();
+				
+				((Buffer) chars).flip();
+				handler.onData(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+				((Buffer) chars).clear();
+				
+			}
+			
+			// Publish what has been read, even before a close (the last screen, e.g. the text before the server closed);
+			// the rest after a capped pass is read on the next one, since the selector reports the channel again
+			handler.onDrained();
+			if (n < 0) {
+				closeNow();
+			}
+			
+		}
+		
+		/**
+		 * Feed one byte to the telnet parser
+		 * @param b
+		 * @return true if the byte is data
+		 */
+		private boolean parse(int b) {
+			switch (state) {
+			case STATE_DATA:
+				if (b == IAC) {
+					state = STATE_IAC;
+					return false;
+				}
+				return true;
+			case STATE_IAC:
+				if (b == IAC) {
+					state = STATE_DATA;
+					return true;	// Escaped 0xFF
+				} else if (b == DO || b == DONT || b == WILL || b == WONT) {
+					command = b;
+					state = STATE_OPTION;
+				} else if (b == SB) {
+					((Buffer) sb).clear();
+					state = STATE_SB;
+				} else {
+					state = STATE_DATA;	// NOP, GA, ...
+				}
+				return false;
+			case STATE_OPTION:
+				negotiate(command, b);
+				state = STATE_DATA;
+				return false;
+			case STATE_SB:
+				if (b == IAC) {
+					state = STATE_SB_IAC;
+				} else if (sb.hasRemaining()) {
+					sb.put((byte) b);
+				}
+				return false;
+			case STATE_SB_IAC:
+				if (b == SE) {
+					subnegotiate();
+					state = STATE_DATA;
+				} else {
+					if (sb.hasRemaining()) {
+						sb.put((byte) b);	// IAC IAC
+					}
+					state = STATE_SB;
+				}
+				return false;
+			default:
+				state = STATE_DATA;
+				return false;
+			}
+		}
+		
+		/**
+		 * Answer an option request by the Q method (RFC 1143): only a request which changes the state is answered.
+		 * This side never starts a negotiation, so the WANT states are left only by the answers of the server.
+		 * @param command
+		 * @param option
+		 */
+		private void negotiate(int command, int option) {
+			switch (command) {
+			case DO:
+				if (us[option] == Q_NO) {
+					if (option == OPT_BINARY || option == OPT_SGA || option == OPT_TTYPE || option == OPT_NAWS) {
+						us[option] = Q_YES;
+						reply(WILL, option);
+						if (option == OPT_NAWS) {
+							sendWindowSize();
+						}
+					} else {
+						reply(WONT, option);
+					}
+				} else if (us[option] == Q_WANTYES) {
+					us[option] = Q_YES;
+				} else if (us[option] == Q_WANTNO) {
+					us[option] = Q_NO;	// DONT answered by DO
+				}
+				break;
+			case DONT:
+				if (us[option] == Q_YES) {
+					us[option] = Q_NO;
+					reply(WONT, option);
+				} else {
+					us[option] = Q_NO;
+				}
+				break;
+			case WILL:
+				if (him[option] == Q_NO) {
+					if (option == OPT_BINARY || option == OPT_ECHO || option == OPT_SGA) {
+						him[option] = Q_YES;
+						reply(DO, option);
+					} else {
+						reply(DONT, option);
+					}
+				} else if (him[option] == Q_WANTYES) {
+					him[option] = Q_YES;
+				} else if (him[option] == Q_WANTNO) {
+					him[option] = Q_NO;	// WONT answered by WILL
+				}
+				break;
+			case WONT:
+				if (him[option] == Q_YES) {
+					him[option] = Q_NO;
+					reply(DONT, option);
+				} else {
+					him[option] = Q_NO;
+				}
+				break;
+			}
+		}
+		
+		private void subnegotiate() {
+			((Buffer) sb).flip();
+			if (sb.remaining() >= 2 && sb.get(0) == OPT_TTYPE && sb.get(1) == TTYPE_SEND) {
+				ByteBuffer buf = ByteBuffer.allocate(6 + TERMINAL_TYPE.length());
+				buf.put((byte) IAC).put((byte) SB).put((byte) OPT_TTYPE).put((byte) TTYPE_IS);
+				buf.put(TERMINAL_TYPE.getBytes());
+				buf.put((byte) IAC).put((byte) SE);
+				((Buffer) buf).flip();
+				queue(buf);
+			}
+		}
+		
+		private void reply(int command, int option) {
+			ByteBuffer buf = ByteBuffer.allocate(3);
+			buf.put((byte) IAC).put((byte) command).put((byte) option);
+			((Buffer) buf).flip();
+			queue(buf);
+		}
+		
+		/**
+		 * Report the window size (a byte of 255 in the size is doubled as IAC IAC)
+		 */
+		private void sendWindowSize() {
+			ByteBuffer buf = ByteBuffer.allocate(13);
+			buf.put((byte) IAC).put((byte) SB).put((byte) OPT_NAWS);
+			for (int b : new int[] { cols >> 8, cols, rows >> 8, rows }) {
+				buf.put((byte) b);
+				if ((b & 0xFF) == IAC) {
+					buf.put((byte) IAC);
+				}
+			}
+			buf.put((byte) IAC).put((byte) SE);
+			((Buffer) buf).flip();
+			queue(buf);
+		}
+		
+		private void closeNow() {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("Fail to close the channel: " + e.getMessage());
+			}
+			handler.onClosed();
+		}
+		
+	}
+	
+}
@@ -3,8 +3,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PushbackReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.SocketException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -12,9 +14,13 @@ import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,7 +30,9 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.commons.net.telnet.InvalidTelnetOptionException;
 import org.apache.commons.net.telnet.TelnetClient;
+import org.apache.commons.net.telnet.WindowSizeOptionHandler;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
@@ -38,9 +46,11 @@ import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
+import crawler.base.AIDCodec;
 import crawler.base.Entry;
 import crawler.base.Post;
 import crawler.base.PostAnalysiser;
+import crawler.client.ScreenMatcher.Region;
 
 public class PTTClient {
 	
@@ -52,7 +62,16 @@ public class PTTClient {
 	}
 	
 	public static enum Protocol {
-		Telnet, SSH
+		Telnet, SSH,
+		TelnetNIO	// Telnet on the shared selector thread (no thread per session)
+	}
+	
+	public static interface FrameListener {
+		void onFrame(ScreenSnapshot frame);
+	}
+	
+	public static interface LineSink {
+		void line(int lineNumber, String text) throws IOException;
 	}
 	
 	public static enum Screen {
@@ -63,19 +82,29 @@ public class PTTClient {
 	}
 	
 	private static final String UserAgent = "Mozilla/5.0 (Windows NT 6.2; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/41.0.2272.101 Safari/537.36";
-	private static final Pattern VT100ControlPattern = Pattern.compile("\u001B\\[(?<code>[0-9;]*)(?<type>[ABCDHJKmsu])");
+	private static final String HOT_BOARDS_URL = "https://www.ptt.cc/bbs/hotboards.html";
 	private static final int DEFAULT_TIMEOUT = 10 * 1000;
 	
-	private static final String MenuHeader = "【主功能表】[\\s\\S]*呼叫器";	
-	private static final String BoardFooter = "文章選讀[\\s\\S]*相關主題[\\s\\S]*找標題/作者[\\s\\S]*進板畫面";
-	private static final String PostFooter = "瀏覽[\\s\\S]*第[\\s\\S]*頁[\\s\\S]*目前顯示[\\s\\S]*第[\\s\\S]*行[\\s\\S]*離開";
+	public static final String DEFAULT_HOST = "ptt.cc";
+	public static final int TELNET_PORT = 23;
+	public static final int SSH_PORT = 22;
+	
+	public static final int DEFAULT_ROWS = 24;
+	public static final int COLUMNS = 80;
 	
 	private static final Pattern ENTRYPATTER_PATTERN = Pattern.compile("[●>][ ]*(?<id>[0-9]+|★[ ]+)[ ](?<status>.)(?<karma>[0-9 X]+|爆)(?<date>../..)[ ](?<author>.*?)([\\s□轉]|R:)+(?<title>.*)");
-	private static final Pattern PROGRESS_PATTERN = Pattern.compile("(?<percent>\\d+)%[^\\d]*(?<from>\\d+)~(?<to>\\d+)");
+	private static final Pattern ENTRY_ROW_PATTERN = Pattern.compile("^[●> ][ ]*(?<id>[0-9]+|★[ ]+)[ ](?<status>.)(?<karma>[0-9 X]+|爆)(?<date>../..)[ ](?<author>.*?)([\\s□轉]|R:)+(?<title>.*)");
+	
+	// Board list keys
+	private static final String KEY_PAGE_DOWN = "\u001B[6~";
 
 	private static final Pattern AID_PATTERN = Pattern.compile("文章代碼\\(AID\\):\\s*#(?<aid>........)");
 	private static final Pattern URL_PATTERN = Pattern.compile("文章網址:\\s*(?<url>.*?)[\\s\\│]+");
 	
+	private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
+	private static final ScreenMatcher AID_MATCHER = new ScreenMatcher(Region.All, AID_PATTERN).setAnchors("文章代碼(AID)");
+	private static final ScreenMatcher URL_MATCHER = new ScreenMatcher(Region.All, URL_PATTERN).setAnchors("文章網址");
+	
 	private static final Pattern URL_VERIFY = Pattern.compile("^(https?)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]");
 		
 	public static final int RETV_TIMEOUT = -1;
@@ -83,25 +112,59 @@ public class PTTClient {
 	public static final int RETV_IOEXCEPTION = -9;
 	
 	// Screen
-	private int posX = -1;
-	private int posY = -1;
-	private char[][] screen = null;
+	private int screenRows = DEFAULT_ROWS;
+	private VT100Terminal terminal = null;	// The terminal of the current connection
+	
+	// Published frame (the render thread draws on screen and publishes snapshots at frame boundaries)
+	// A lock rather than a monitor: a virtual thread waiting on a monitor would pin its carrier thread
+	private final ReentrantLock screenLock = new ReentrantLock();
+	private final Condition screenChanged = screenLock.newCondition();
+	private volatile ScreenSnapshot snapshot = null;
+	private volatile boolean isEOF = false;
+	private int generation = 0;		// The current connection (guarded by screenLock), so the readers of a closed one are ignored
+	private final List<FrameListener> frameListeners = new CopyOnWriteArrayList<FrameListener>();
+	
+	// Round trip measurement (guarded by screenLock)
+	private final RttEstimator rtt = new RttEstimator();
+	private long sendTime = 0;
+	private long sendVersion = -1;
+	private long frameTime = 0;
 	
 	private Protocol protocol = null;
+	private String host = DEFAULT_HOST;
+	private int port = -1;	// The default port of the protocol
+	private String username = null, password = null;
+	private boolean isDup = false;
 	private TelnetClient tc = null;
 	
 	private Channel channel = null;
 	private Session session = null;
 	
+	private NioTelnetTransport.Connection nioConnection = null;
+	
 	private InputStream is = null;
 	private OutputStream os = null;
+	private KeystrokeRateLimiter rateLimiter = null;
 	private Thread renderScreenThread = null;
 	
 	// Matchers
 	@SuppressWarnings("unused")
 	private String beforeStr = null, matchStr = null, afterStr = null;
+	private ScreenSnapshot matchFrame = null;
 	
 	public PTTClient() {
+		this(DEFAULT_ROWS);
+	}
+	
+	/**
+	 * @param screenRows The number of terminal rows negotiated with the server (at least 24).
+	 * 					 A taller screen lists more entries and shows more post lines per round trip.
+	 */
+	public PTTClient(int screenRows) {
+		if (screenRows < DEFAULT_ROWS) {
+			throw new IllegalArgumentException("The screen must have at least " + DEFAULT_ROWS + " rows.");
+		}
+		this.screenRows = screenRows;
 		initialize();
 	}
 	
@@ -109,9 +172,10 @@ public class PTTClient {
 	 * 初始化
 	 */
 	public void initialize() {
-		screen = new char[72][80];
-		posY = posX = -1;
-		clearScreen();
+		terminal = new VT100Terminal(screenRows, COLUMNS);
+		ScreenSnapshot frame = terminal.snapshot(0);
+		frame.setState(ScreenState.classify(frame, null, 0));
+		snapshot = frame;
 	}
 	
 	/**
@@ -127,18 +191,49 @@ public class PTTClient {
 		
 		switch (this.protocol) {
 		case Telnet:
-			log.info("Connect ptt.cc using telnet");
+			log.info("Connect " + host + " using telnet");
 			
 			tc = new TelnetClient();
-			tc.connect("ptt.cc");
+			try {
+				// NAWS: tell the server the size of the screen
+				tc.addOptionHandler(new WindowSizeOptionHandler(COLUMNS, screenRows, true, false, true, false));
+			} catch (InvalidTelnetOptionException e) {
+				log.warn("Fail to negotiate the window size: " + e.getMessage());
+			}
+			tc.connect(host, port > 0 ? port : TELNET_PORT);
 			
 			is = tc.getInputStream();	
 			os = tc.getOutputStream();
 			
 			break;
+		case TelnetNIO:
+			log.info("Connect " + host + " using telnet (NIO)");
+			
+			// The screen is reset before the first byte can be read
+			final int nioGeneration = resetScreen();
+			final VT100Terminal nioTerminal = terminal;
+			nioConnection = NioTelnetTransport.getDefault().open(host, port > 0 ? port : TELNET_PORT, COLUMNS, screenRows, new NioTelnetTransport.Handler() {
+				@Override
+				public void onData(char[] cb, int off, int len) {
+					nioTerminal.feed(cb, off, len);
+				}
+				@Override
+				public void onDrained() {
+					publishScreen(nioTerminal, nioGeneration);
+				}
+				@Override
+				public void onClosed() {
+					setEOF(nioGeneration);
+				}
+			});
+			
+			is = null;
+			os = nioConnection.getOutputStream();
+			
+			return;
 		case SSH:
 		default:
-			log.info("Connect ptt.cc using SSH (bbs@ptt.cc)");
+			log.info("Connect " + host + " using SSH (bbsu@" + host + ")");
 			
 			Properties configuration = new Properties();
 			configuration.put("kex", "diffie-hellman-group1-sha1,"
@@ -147,10 +242,12 @@ public class PTTClient {
 								   + "diffie-hellman-group-exchange-sha256");
 			configuration.put("StrictHostKeyChecking", "no");
 			
-			session = new JSch().getSession("bbsu", "ptt.cc");
+			session = new JSch().getSession("bbsu", host, port > 0 ? port : SSH_PORT);
 			session.setConfig(configuration);
 			session.connect(10 * 1000); // Timeout 10 seconds
-			channel = (ChannelShell) session.openChannel("shell");
+			ChannelShell shell = (ChannelShell) session.openChannel("shell");
+			shell.setPtySize(COLUMNS, screenRows, COLUMNS * 8, screenRows * 16);
+			channel = shell;
 			channel.connect();
 			
 			is = channel.getInputStream();	
@@ -159,22 +256,63 @@ public class PTTClient {
 			break;
 		}
 		
-		renderScreenThread = new Thread(new Runnable() {
+		final int readerGeneration = resetScreen();
+		final VT100Terminal readerTerminal = terminal;
+		final InputStream input = is;
+		// The stream readers of commons-net and JSch block inside monitors, which pins a virtual thread
+		renderScreenThread = VirtualThreads.newThread("Render the screen from InputStream", new Runnable() {
 			@Override
 			public void run() {
 				try {
-					renderScreen();
+					renderScreen(input, readerTerminal, readerGeneration);
 				} catch (IOException e) {
 					e.printStackTrace();
+				} finally {
+					setEOF(readerGeneration);
 				}
 			}
-		});
-		renderScreenThread.setName("Render the screen from InputStream");
-		renderScreenThread.setDaemon(true);
+		}, true);
 		renderScreenThread.start();
 		
 	}
 	
+	/**
+	 * A (re)connection starts from a blank screen on a terminal of its own (the version keeps increasing).
+	 * The reader of a closed connection may still be feeding its old terminal, so its frames and its EOF are ignored.
+	 * @return The generation of the new connection
+	 */
+	private int resetScreen() {
+		VT100Terminal fresh = new VT100Terminal(screenRows, COLUMNS);
+		int current;
+		screenLock.lock();
+		try {
+			current = ++generation;
+			terminal = fresh;
+			sendVersion = -1;
+			isEOF = false;
+		} finally {
+			screenLock.unlock();
+		}
+		publishScreen(fresh, current);
+		return current;
+	}
+	
+	/**
+	 * Mark the end of the input and wake up the waiters
+	 * @param readerGeneration The connection of the reader (a closed connection is ignored)
+	 */
+	private void setEOF(int readerGeneration) {
+		screenLock.lock();
+		try {
+			if (readerGeneration == generation) {
+				isEOF = true;
+				screenChanged.signalAll();
+			}
+		} finally {
+			screenLock.unlock();
+		}
+	}
+	
 	/**
 	 * 關閉連線
 	 * @throws IOException
@@ -198,10 +336,28 @@ public class PTTClient {
 			channel.disconnect();
 			session.disconnect();
 			break;
+		case TelnetNIO:
+			if (nioConnection == null) { return; }
+			log.info("Close the telnet connection.");
+			nioConnection.close();
+			break;
 		}
 		
 	}
 	
+	/**
+	 * Close the connection, connect again with the same protocol and log in with the same account
+	 * @throws Exception
+	 */
+	public void reconnect() throws Exception {
+		if (protocol == null || username == null) {
+			throw new Exception("Not logged in yet.");
+		}
+		close();
+		connect(protocol);
+		login(username, password, isDup);
+	}
+	
 	/**
 	 * 登入PTT
 	 * @param username
@@ -211,7 +367,11 @@ public class PTTClient {
 	 */
 	public void login(String username, String password, boolean isDup) throws Exception {
 		
-		if (this.protocol == PTTClient.Protocol.Telnet) {
+		this.username = username;
+		this.password = password;
+		this.isDup = isDup;
+		
+		if (this.protocol == PTTClient.Protocol.Telnet || this.protocol == PTTClient.Protocol.TelnetNIO) {
 			send(username + ",\r\n" + password + "\r\n");
 		} else if (expect("請輸入代號，或以 guest 參觀，或以 new 註冊:") == 0) {
 			send(username + "\r\n" + password + "\r\n");
@@ -253,6 +413,9 @@ public class PTTClient {
 	 */
 	public void logout() throws IOException {
 		send("qqqqqqeee\nY\n");
+		if (!awaitDisconnect(getDefaultTimeout())) {
+			log.warn("The server has not closed the connection after logout.");
+		}
 	}
 	
 	/**
@@ -269,7 +432,7 @@ public class PTTClient {
 	 */
 	public void toMainMenu() throws IOException {
 		send("qqqqqq");
-		if (expect("【主功能表】[\\s\\S]*呼叫器") != 0) {
+		if (expectScreen(ScreenMatchers.MAIN_MENU) != 0) {
 			log.warn("無法回到【主功能表】");
 		} else {
 			log.info("已回到【主功能表】");
@@ -284,23 +447,27 @@ public class PTTClient {
 	public void toBoard(String boardName) throws Exception {
 		toMainMenu();
 		send("s" + boardName + "\r\n$$");
-		int m1 = expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter);
+		int m1 = expectScreen(ScreenMatchers.board(boardName));
 		if (m1 != 0) {
 			throw new Exception("Fail to go Board.");
 		}
 	}
 	
 	/**
-	 * Get the popularity of the board 
+	 * Get the popularity of the board (read from the current screen if it is the board already)
 	 * @param boardName
 	 * @return
 	 * @throws Exception
 	 */
 	public int getBoardPopularity(String boardName) throws Exception {
-		toBoard(boardName);
-		this.refresh();
-		if (expect("編號.*日.*期.*作.*者.*文.*章.*標.*題.*人氣:\\d+") == 0) {
-			Matcher m = Pattern.compile("\\d+").matcher(matchStr);
+		if (getCurrentScreen(boardName) != Screen.Board) {
+			toBoard(boardName);
+		}
+		if (expectScreen(0, ScreenMatchers.POPULARITY) != 0) {
+			refresh();
+		}
+		if (expectScreen(ScreenMatchers.POPULARITY) == 0) {
+			Matcher m = NUMBER_PATTERN.matcher(matchStr);
 			if (m.find()) {
 				return Integer.parseInt(m.group());
 			}
@@ -314,21 +481,19 @@ public class PTTClient {
 	 * @throws IOException 
 	 */
 	public Screen getCurrentScreen(String boardName) throws IOException {
-		refresh(100);
-		int matchIndex = expect(
-			MenuHeader, 
-			"看板《" + boardName + "》[\\s\\S]*" + BoardFooter, 
-			PostFooter
-		);
-		if (matchIndex == 0) {
-			return Screen.MainMenu;
-		} else if (matchIndex == 1) {
-			return Screen.Board;
-		} else if (matchIndex == 2) {
-			return Screen.Post;
-		} else {
+		ScreenState state = getScreenState();
+		if (state.getScreen() == Screen.Board && !boardName.equals(state.getBoardName())) {
 			return Screen.Unknown;
 		}
+		return state.getScreen();
+	}
+	
+	/**
+	 * Get the state of the current screen (classified by the render thread)
+	 * @return
+	 */
+	public ScreenState getScreenState() {
+		return snapshot.getState();
 	}
 	
 	/**
@@ -336,9 +501,9 @@ public class PTTClient {
 	 * @throws IOException 
 	 */
 	public void setPlainTextMode(String boardName) throws IOException {
-		this.refresh();
+		refresh();
 		send("l\\3q");
-		expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter);
+		expectScreen(ScreenMatchers.board(boardName));
 	}
 	
 	/**
@@ -347,20 +512,11 @@ public class PTTClient {
 	 * @throws Exception
 	 */
 	public Entry moveUpEntry(String boardName) throws Exception {
-		Entry newEntry, oldEntry = getBasicEntryInfo(boardName);
-		if (oldEntry.number.equals("1")) {
+		Entry oldEntry = getBasicEntryInfo(boardName);
+		if (!oldEntry.sticky && oldEntry.number == 1) {
 			throw new Exception("Aready at the toppest entry.");
 		}
-		send("k");
-		int times = 0;
-		do {
-			Thread.sleep(100);
-			newEntry = getBasicEntryInfo(boardName);
-			if (++times > 100) {
-				throw new Exception("Can not move to the up entry.");
-			}
-		} while (newEntry.number == oldEntry.number);
-		return getFullEntryInfo(boardName);
+		return moveEntry(boardName, oldEntry, "k");
 	}
 	
 	/**
@@ -369,20 +525,102 @@ public class PTTClient {
 	 * @throws Exception
 	 */
 	public Entry moveDownEntry(String boardName) throws Exception {
-		Entry newEntry, oldEntry = getBasicEntryInfo(boardName);
-		if (oldEntry.number.equals("★")) {
+		Entry oldEntry = getBasicEntryInfo(boardName);
+		if (oldEntry.sticky) {
 			throw new Exception("Aready at the downest entry.");
 		}
-		send("n");
-		int times = 0;
-		do {
-			Thread.sleep(100);
-			newEntry = getBasicEntryInfo(boardName);
-			if (++times > 100) {
-				throw new Exception("Can not move to the down entry.");
+		return moveEntry(boardName, oldEntry, "n");
+	}
+	
+	/**
+	 * Move the cursor off the given entry
+	 * @param boardName
+	 * @param oldEntry
+	 * @param key
+	 * @return The entry information after moving
+	 * @throws Exception
+	 */
+	private Entry moveEntry(String boardName, final Entry oldEntry, String key) throws Exception {
+		return moveAndQuery(boardName, key, new Predicate<Entry>() {
+			@Override
+			public boolean test(Entry moved) {
+				return !moved.isSameRow(oldEntry);
+			}
+		});
+	}
+	
+	/**
+	 * Move the cursor and open the info screen (Q) in one write, so both cost a single round trip.
+	 * A deleted entry may show no info screen, which is not an error, so the info screen is awaited for one round trip
+	 * and only longer when the entry is not known to be deleted.
+	 * @param boardName
+	 * @param keys The keys moving the cursor
+	 * @param target Whether the entry under the cursor is the one moved to
+	 * @return The entry information after moving
+	 * @throws Exception
+	 */
+	private Entry moveAndQuery(String boardName, String keys, Predicate<Entry> target) throws Exception {
+		
+		KeySequencer sequencer = new KeySequencer(this)
+				.then(keys)
+				.then("Q", ScreenMatchers.PRESS_ANY_KEY);
+		ScreenSnapshot infoFrame = sequencer.run((int) rtt.getTimeout())[1];
+		
+		// The newest frame which shows the moved cursor (the info box may cover the cursor line)
+		Entry entry = null;
+		List<ScreenSnapshot> frames = sequencer.getFrames();
+		for (int i = frames.size() - 1; i >= 0 && entry == null; i--) {
+			Matcher matcher = findCursorEntry(frames.get(i));
+			if (matcher != null) {
+				Entry moved = toEntry(matcher);
+				if (target.test(moved)) {
+					entry = moved;
+				}
 			}
-		} while (newEntry.number == oldEntry.number);
-		return getFullEntryInfo(boardName);
+		}
+		
+		// The info screen of a live (or not yet seen) entry is slower than usual
+		if (infoFrame == null && (entry == null || !entry.isDeleted()) &&
+			expectScreen(ScreenMatchers.PRESS_ANY_KEY) == 0) {
+			infoFrame = matchFrame;
+		}
+		
+		if (infoFrame != null) {
+			send("\n");
+		}
+		
+		if (entry == null) {
+			long endTime = System.currentTimeMillis() + getDefaultTimeout();
+			do {
+				entry = getBasicEntryInfo(boardName);
+				if (!target.test(entry) &&
+					!awaitScreenChange(matchFrame.getVersion(), endTime - System.currentTimeMillis())) {
+					throw new Exception("Can not move to the entry.");
+				}
+			} while (!target.test(entry));
+		}
+		
+		if (entry.isDeleted()) {
+			return entry;
+		}
+		if (infoFrame == null) {
+			throw new Exception("Can not move to the entry.");
+		}
+		
+		Matcher matcher = AID_PATTERN.matcher(infoFrame.getText());
+		if (!matcher.find()) {
+			// The box was drawn before its AID line, so query it again
+			return getFullEntryInfo(boardName);
+		}
+		entry.aid = AIDCodec.decode(matcher.group("aid"));
+		matcher = URL_PATTERN.matcher(infoFrame.getText());
+		if (matcher.find() && URL_VERIFY.matcher(matcher.group("url")).find()) {
+			entry.url = matcher.group("url");
+		} else if (entry.aid != 0) {
+			entry.url = AIDCodec.toURL(boardName, entry.aid);
+		}
+		
+		return entry;
 	}
 	
 	/**
@@ -391,127 +629,229 @@ public class PTTClient {
 	 */
 	public Entry toLatestPost(String boardName) throws Exception {
 		send("$$");	// Skip the welcome of the board & to the latest article
-		refresh(300);
-		if (expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter) != 0) {
+		refresh();
+		if (expectScreen(ScreenMatchers.board(boardName)) != 0) {
 			throw new Exception("Current screen is not \"Board\"");
 		}
 		
-		Entry oldEntry = getFullEntryInfo(boardName), newEntry = null;
-		if (!oldEntry.number.equals("★") && !oldEntry.author.equals("-")) {
-			return oldEntry;
-		}
-		for (int times=0; ; times++) {
-			
-			try {
-				
-				send("k");
-				
-				int times2 = 0;
-				do {
-					Thread.sleep(100);
-					newEntry = getFullEntryInfo(boardName);
-					if (++times2 > 100) {
-						return newEntry;
-					}
-				} while (oldEntry.id == newEntry.id);
-				
-				if (!newEntry.number.equals("★") && !newEntry.author.equals("-")) {
-					break;
-				}
-				oldEntry = newEntry;
-				
-			} catch (Exception e) {
-				
-			}
-			
+		// Move up over the sticky and deleted entries (each move waits for its own screen)
+		Entry entry = getFullEntryInfo(boardName);
+		for (int times=0; entry.sticky || entry.isDeleted(); times++) {
 			if (times >= 100) {
 				throw new Exception("Can not go to latest post.");
 			}
-			
+			entry = moveEntry(boardName, entry, "k");
 		}
 		
-		return newEntry;
+		return entry;
 	}
 	
 	public Entry getBasicEntryInfo(String boardName) throws Exception {
-		if (expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter) == 0) {
-			Matcher matcher = ENTRYPATTER_PATTERN.matcher(matchStr);
-			if (matcher.find()) {
-				String id = null;
-				String url = null;
-				String number = matcher.group("id").trim();
-				String status = matcher.group("status").trim();
-				String karma = matcher.group("karma").trim();
-				String date = matcher.group("date").trim();
-				String author = matcher.group("author").trim();
-				String title = matcher.group("title").trim();
-				return new Entry(id, number, status, karma, date, author, title, url);
-			} else {
-				throw new Exception("Can not match entry. " + matchStr);
+		return toEntry(expectEntry(boardName));
+	}
+	
+	/**
+	 * Build the entry from the matcher of an entry row (without AID and URL)
+	 * @param matcher
+	 * @return
+	 */
+	private static Entry toEntry(Matcher matcher) {
+		return Entry.parse(matcher.group("id"), matcher.group("status"), matcher.group("karma"),
+				matcher.group("date"), matcher.group("author"), matcher.group("title"));
+	}
+	
+	/**
+	 * Parse all the entries listed on the current board screen in one pass (without AID and URL)
+	 * @param boardName
+	 * @return The entries from top to bottom
+	 * @throws Exception
+	 */
+	public List<Entry> getEntriesOnPage(String boardName) throws Exception {
+		return expectEntryPage(boardName, -1);
+	}
+	
+	/**
+	 * Jump to the page listing the number, without opening the info screen
+	 * @param boardName
+	 * @param postNum A listed number
+	 * @return The entries of the page
+	 * @throws Exception
+	 */
+	public List<Entry> toEntryPageByNum(String boardName, int postNum) throws Exception {
+		long endTime = System.currentTimeMillis() + getDefaultTimeout();
+		long version = getScreenVersion();
+		send(Integer.toString(postNum) + "\r\n");
+		while (true) {
+			List<Entry> entries = expectEntryPage(boardName, version);
+			Matcher cursor = findCursorEntry(matchFrame);
+			if (cursor != null) {
+				Entry entry = toEntry(cursor);
+				if (!entry.sticky && entry.number == postNum) {
+					return entries;
+				}
 			}
-		} else {
-			throw new Exception("Screen is not \"Board\"");
+			// The frame still answers an earlier key
+			if (System.currentTimeMillis() >= endTime) {
+				throw new Exception("Can not go to the page of " + postNum);
+			}
+			version = matchFrame.getVersion();
 		}
 	}
 	
 	/**
-	 * getFullEntryInfo
+	 * Go to the next page of the board list (PgDn)
+	 * @param boardName
+	 * @return The entries of the next page, or an empty list if it is the last page
+	 * @throws Exception
+	 */
+	public List<Entry> pageDownEntries(String boardName) throws Exception {
+		List<Entry> entries = getEntriesOnPage(boardName);
+		if (entries.isEmpty() || entries.get(entries.size() - 1).sticky) {
+			return new ArrayList<Entry>();
+		}
+		long version = getScreenVersion();
+		send(KEY_PAGE_DOWN);
+		List<Entry> next = expectEntryPage(boardName, version);
+		if (!next.isEmpty() && next.get(0).isSameRow(entries.get(0))) {
+			// The last page has been reached
+			return new ArrayList<Entry>();
+		}
+		return next;
+	}
+	
+	/**
+	 * Wait for a "Board" frame newer than the given version whose entry rows are consistent
+	 * @param boardName
+	 * @param version
 	 * @return
-	 * @throws Exception 
+	 * @throws Exception
 	 */
-	public Entry getFullEntryInfo(String boardName) throws Exception {
-		
-		boolean isSuccess = false;
-		int times = 0;
-		Matcher matcher = null;
-		
-		do {
-
-			expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter);
-			
-			matcher = ENTRYPATTER_PATTERN.matcher(matchStr);
+	private List<Entry> expectEntryPage(String boardName, long version) throws Exception {
+		long endTime = System.currentTimeMillis() + getDefaultTimeout();
+		while (true) {
+			long waitTime = endTime - System.currentTimeMillis();
+			if (waitTime <= 0 || expectScreenAfter(version, (int) waitTime, ScreenMatchers.board(boardName)) != 0) {
+				throw new Exception("Screen is not \"Board\"");
+			}
+			List<Entry> entries = parseEntryRows(matchFrame);
+			if (isConsecutive(entries)) {
+				return entries;
+			}
+			// The list is still being redrawn
+			version = matchFrame.getVersion();
+		}
+	}
+	
+	/**
+	 * Parse the entry rows between the header and the footer
+	 * @param frame
+	 * @return
+	 */
+	private static List<Entry> parseEntryRows(ScreenSnapshot frame) {
+		List<Entry> entries = new ArrayList<Entry>(frame.getRows());
+		for (int i=1; i<frame.getRows()-1; i++) {
+			Matcher matcher = ENTRY_ROW_PATTERN.matcher(frame.getRowText(i));
 			if (matcher.find()) {
-				isSuccess = true;
-			} else {
-				log.warn("Faild to match entry. " + matchStr.replaceAll("\\s+", " "));
-				times++;
+				entries.add(toEntry(matcher));
 			}
-			
-			if (times >= 5) {
-				log.error("Faild to match entry. " + matchStr.replaceAll("\\s+", " "));
+		}
+		return entries;
+	}
+	
+	/**
+	 * Check whether the numbered entries are consecutive (a half-drawn page is not)
+	 * @param entries
+	 * @return
+	 */
+	private static boolean isConsecutive(List<Entry> entries) {
+		int last = -1;
+		for (Entry entry : entries) {
+			if (entry.sticky) {
+				continue;
+			}
+			if (last >= 0 && entry.number != last + 1) {
+				return false;
+			}
+			last = entry.number;
+		}
+		return true;
+	}
+	
+	/**
+	 * Wait for a "Board" frame which contains the cursor entry
+	 * @param boardName
+	 * @return The matcher of the cursor entry
+	 * @throws Exception
+	 */
+	private Matcher expectEntry(String boardName) throws Exception {
+		long endTime = System.currentTimeMillis() + getDefaultTimeout();
+		while (true) {
+			long waitTime = endTime - System.currentTimeMillis();
+			if (waitTime <= 0 || expectScreen((int) waitTime, ScreenMatchers.board(boardName)) != 0) {
+				throw new Exception("Screen is not \"Board\"");
+			}
+			Matcher matcher = findCursorEntry(matchFrame);
+			if (matcher != null) {
+				return matcher;
+			}
+			// The frame is consistent, so only a newer frame can contain the entry
+			if (!awaitScreenChange(matchFrame.getVersion(), endTime - System.currentTimeMillis())) {
+				log.error("Faild to match entry. " + matchFrame.getText().replaceAll("\\s+", " "));
 				throw new Exception("Faild to match entry.");
 			}
-			
-		} while (!isSuccess);
+		}
+	}
+	
+	/**
+	 * Find the cursor entry (●/>) in the rows between the header and the footer
+	 * @param frame
+	 * @return
+	 */
+	private Matcher findCursorEntry(ScreenSnapshot frame) {
+		for (int i=1; i<frame.getRows()-1; i++) {
+			String row = frame.getRowText(i);
+			if (row.indexOf('●') < 0 && row.indexOf('>') < 0) {
+				continue;
+			}
+			Matcher matcher = ENTRYPATTER_PATTERN.matcher(row);
+			if (matcher.find()) {
+				return matcher;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * getFullEntryInfo
+	 * @return
+	 * @throws Exception 
+	 */
+	public Entry getFullEntryInfo(String boardName) throws Exception {
 		
+		Entry entry = toEntry(expectEntry(boardName));
 		String id = null;
 		String url = null;
-		String number = matcher.group("id").trim();
-		String status = matcher.group("status").trim();
-		String karma = matcher.group("karma").trim();
-		String date = matcher.group("date").trim();
-		String author = matcher.group("author").trim();
-		String title = matcher.group("title").trim();
 		
-		if (!author.equals("-")) {
-			boolean success = false;
+		if (!entry.isDeleted()) {
 			int count = 0;
 			do {
 				String[] temp = this.getAID().split("\\t");
-				if (temp.length > 0 && !temp[0].equals("")) {
+				if (temp.length > 0 && AIDCodec.decode(temp[0]) != 0) {
 					id = temp[0];
 				}
 				if (temp.length > 1 && !temp[1].equals("")) {
 					url = temp[1];
 				}
-				if (url != null && URL_VERIFY.matcher(url).find()) {
-					success = true;
-				}
 				count++;
-			} while (!success && count < 5);
+			} while (id == null && count < 5);
+			// The URL is derived from the AID instead of querying the info screen again
+			if (id != null && (url == null || !URL_VERIFY.matcher(url).find())) {
+				url = AIDCodec.toURL(boardName, id);
+			}
 		}
 		
-		Entry entry = new Entry(id, number, status, karma, date, author, title, url);
+		entry.aid = AIDCodec.decode(id);
+		entry.url = url;
 		return entry;
 	}
 	
@@ -526,18 +866,18 @@ public class PTTClient {
 		String url = "";
 		
 		send("Q");
-		if (expect("請按任意鍵繼續") != 0) {
+		if (expectScreen(ScreenMatchers.PRESS_ANY_KEY) != 0) {
 			return "";
 		}
 		
 		// 文章代碼(AID): #1L4GI8SM
-		if (expect(AID_PATTERN) == 0) {
+		if (expectScreen(AID_MATCHER) == 0) {
 			Matcher m = AID_PATTERN.matcher(matchStr);
 			if (m.find()) {
 				aid = m.group("aid");
 			}
 		}
-		if (expect(URL_PATTERN) == 0) {
+		if (expectScreen(URL_MATCHER) == 0) {
 			Matcher m = URL_PATTERN.matcher(matchStr);
 			if (m.find()) {
 				url = m.group("url");
@@ -550,33 +890,66 @@ public class PTTClient {
 	}
 	
 	/**
-	 * toPostByNum
+	 * toPostByNum (the jump and the info screen are sent in one write)
 	 * @param postNum
 	 * @throws Exception 
 	 */
-	public Entry toEntryByNum(String boardName, int postNum) throws Exception {
-		send(Integer.toString(postNum) + "\r\nhq");
-		this.refresh(200);
-		if (expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter) != 0) {
-			throw new Exception("Current screen is not \"Board\"");
-		}
-		return getFullEntryInfo(boardName);
+	public Entry toEntryByNum(String boardName, final int postNum) throws Exception {
+		// A frame may still answer an earlier key, so wait for the cursor to reach the number
+		return moveAndQuery(boardName, Integer.toString(postNum) + "\r\n", new Predicate<Entry>() {
+			@Override
+			public boolean test(Entry moved) {
+				return moved.sticky || moved.number == postNum;
+			}
+		});
 	}
 	
 	/**
-	 * Go to post by ID
+	 * Go to post by ID, and verify it from the info screen
 	 * @param postID
 	 * @return 
 	 * @throws Exception 
 	 */
 	public Entry toEntryByID(String boardName, String postID) throws Exception {
+		return toEntryByID(boardName, postID, null);
+	}
+	
+	/**
+	 * Go to a listed post by its AID. The info screen is skipped only if the entry under the cursor is the listed one
+	 * (the same number, author and date, which is also the date of the AID).
+	 * @param boardName
+	 * @param expected The entry as listed, with its AID
+	 * @return
+	 * @throws Exception
+	 */
+	public Entry toEntryByID(String boardName, Entry expected) throws Exception {
+		return toEntryByID(boardName, expected.getAID(), expected);
+	}
+	
+	private Entry toEntryByID(String boardName, String postID, Entry expected) throws Exception {
 		log.info("Go to AID: #"+ postID);
 		send("#" + postID + "\r\nhq");
-		this.refresh(200);
-		if (expect("看板《" + boardName + "》[\\s\\S]*" + BoardFooter) != 0) {
+		refresh();
+		if (expectScreen(ScreenMatchers.board(boardName)) != 0) {
 			throw new Exception("Current screen is not \"Board\"");
 		}
-		return getFullEntryInfo(boardName);
+		
+		long aidu = AIDCodec.decode(postID);
+		Entry entry = getBasicEntryInfo(boardName);
+		if (expected != null && aidu != 0 && !entry.isDeleted() && entry.isSameRow(expected) &&
+			entry.author.equals(expected.author) && entry.date == expected.date &&
+			entry.date == Entry.parseDate(AIDCodec.getListDate(aidu))) {
+			entry.aid = aidu;
+			entry.url = AIDCodec.toURL(boardName, aidu);
+			return entry;
+		}
+		
+		// A failed jump leaves the cursor on another post
+		entry = getFullEntryInfo(boardName);
+		if (aidu == 0 || entry.aid != aidu) {
+			throw new Exception("Can not go to the post #" + postID);
+		}
+		return entry;
 	}
 	
 	/**
@@ -585,11 +958,51 @@ public class PTTClient {
 	 * @throws Exception 
 	 */
 	public String downloadCurrentPost() throws Exception {
+		StringWriter content = new StringWriter();
+		downloadCurrentPost(content);
+		return content.toString();
+	}
+	
+	/**
+	 * Download the post under the cursor and write each line as soon as its page arrives
+	 * @param writer
+	 * @return The number of lines written
+	 * @throws Exception
+	 */
+	public int downloadCurrentPost(Writer writer) throws Exception {
+		return downloadCurrentPost(toLineSink(writer), 1);
+	}
+	
+	/**
+	 * Write each line to the writer
+	 * @param writer
+	 * @return
+	 */
+	public static LineSink toLineSink(final Writer writer) {
+		return new LineSink() {
+			@Override
+			public void line(int lineNumber, String text) throws IOException {
+				writer.write(text);
+				writer.write('\n');
+			}
+		};
+	}
+	
+	/**
+	 * Download the post under the cursor and push the de-overlapped lines to the sink page by page
+	 * @param sink
+	 * @param startLine The first line to push (1 for the whole post). The pager jumps to it with the goto-line key.
+	 * @return The number of lines pushed
+	 * @throws Exception
+	 */
+	public int downloadCurrentPost(LineSink sink, int startLine) throws Exception {
 		
-		StringBuilder content = new StringBuilder();
+		int count = 0;
 		int percent = -1;
 		int fromLine = -1, toLine = -1;
-		int fromLine_bk = -1, toLine_bk = 0;
+		int fromLine_bk = -1, toLine_bk = startLine - 1;
+		boolean jumped = startLine <= 1;
+		long pageTime = System.currentTimeMillis();	// When the last new page was rendered
 		
 		try {
 			
@@ -597,8 +1010,10 @@ public class PTTClient {
 			
 			while (true) {
 				
-				int midx = expect(PostFooter, "此頁內容會依閱讀者不同", "此文章無內容[\\s\\S]*按任意鍵繼續");
-				if (midx < 0) {
+				int midx = expectScreen(ScreenMatchers.POST_FOOTER, ScreenMatchers.POST_VARIES, ScreenMatchers.POST_EMPTY);
+				if (midx == RETV_EOF) {
+					throw new IOException("The connection has been closed.");
+				} else if (midx < 0) {
 					log.warn("[Skip] Unexpected PostFooter");
 					break;
 				} else if (midx == 1) {
@@ -609,34 +1024,45 @@ public class PTTClient {
 					break;
 				}
 				
-				String[] lines = beforeStr.split("\\n");
-				String footer = matchStr;
+				ScreenSnapshot frame = matchFrame;
+				ScreenState state = frame.getState();
 				
-				Matcher matcher = PROGRESS_PATTERN.matcher(footer);
-				if (!matcher.find()) {
-					throw new Exception("Faild to match footer \"" + footer + "\"");
+				if (state.getScreen() != Screen.Post || state.getPercent() < 0) {
+					throw new Exception("Faild to match footer \"" + matchStr + "\"");
 				}
 				fromLine_bk = fromLine;
 				
-				percent = Integer.parseInt(matcher.group("percent"));
-				fromLine = Integer.parseInt(matcher.group("from"));
-				toLine = Integer.parseInt(matcher.group("to"));
+				percent = state.getPercent();
+				fromLine = state.getFromLine();
+				toLine = state.getToLine();
+				if (!jumped && percent != 100 && toLine < startLine) {
+					// Resume at the checkpoint instead of paging from line 1
+					send(":" + startLine + "\r");
+					jumped = true;
+					pageTime = System.currentTimeMillis();
+					continue;
+				}
 				if (percent != 100 && fromLine == fromLine_bk) {
-					Thread.sleep(50);
+					// The next page has not been rendered yet (the last frame stays on the screen after a disconnection)
+					if (!awaitScreenChange(frame.getVersion(), rtt.getTimeout()) && isEOF) {
+						throw new IOException("The connection has been closed.");
+					}
+					if (System.currentTimeMillis() - pageTime > getDefaultTimeout()) {
+						throw new IOException("The next page has not been rendered in " + getDefaultTimeout() + " ms.");
+					}
 					continue;
 				}
 				
 				//log.trace(String.format("%4d ~ %4d\t%3d%%", fromLine, toLine, percent));
 				
-				// Append content
-				int overlapLines = 0;
-				if (fromLine <= toLine_bk) {
-					overlapLines = toLine_bk - fromLine + 1;
-				}
-				for (int i=overlapLines; i<(lines.length-1); i++) {
-					content.append(lines[i].trim()).append("\n");
+				// Push the lines after the last pushed line (row i shows line fromLine + i)
+				int lastRow = Math.min(frame.getRows() - 2, toLine - fromLine);
+				for (int i = Math.max(0, toLine_bk - fromLine + 1); i <= lastRow; i++) {
+					sink.line(fromLine + i, frame.getRowText(i).trim());
+					count++;
 				}
-				toLine_bk = toLine;
+				toLine_bk = Math.max(toLine_bk, toLine);
+				pageTime = System.currentTimeMillis();
 				
 				// Next page or 100% break loop
 				if (percent == 100) {
@@ -651,58 +1077,99 @@ public class PTTClient {
 			
 		} catch (IOException e) {
 			e.printStackTrace();
-			throw new Exception("下載貼文發生錯誤");
+			throw new Exception("下載貼文發生錯誤 (" + count + " lines downloaded)");
 		}
 		
-		return content.toString();
+		return count;
+	}
+	
+	/**
+	 * Get the number of the terminal rows
+	 * @return
+	 */
+	public int getScreenRows() {
+		return screenRows;
 	}
 	
 	public String getScreen() {
-		StringBuilder sb = new StringBuilder(24 * 80);
-		for (int i=0; i<24; i++) {
-			for (int j=0; j<80; j++) {
-				if (screen[i][j] != 0x00) {
-					sb.append(screen[i][j]);
-				}
-			}
-			sb.append("\n");
-		}
-		return sb.toString();
+		return snapshot.getText();
+	}
+	
+	/**
+	 * Get the latest consistent frame of the screen
+	 * @return
+	 */
+	public ScreenSnapshot getSnapshot() {
+		return snapshot;
 	}
 	
 	public int expect(Object... patterns) {
-		return expect(DEFAULT_TIMEOUT, patterns);
+		return expect(getDefaultTimeout(), patterns);
 	}
 	
 	public int expect(int timeout, Object... patterns) {
-		ArrayList<Pattern> list = new ArrayList<Pattern>();
-		for (Object obj : patterns) {
-			if (obj instanceof String)
-				list.add(Pattern.compile((String) obj));
+		ScreenMatcher[] matchers = new ScreenMatcher[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			Object obj = patterns[i];
+			if (obj instanceof ScreenMatcher)
+				matchers[i] = (ScreenMatcher) obj;
+			else if (obj instanceof String)
+				matchers[i] = new ScreenMatcher(Region.All, ScreenMatchers.compile((String) obj));
 			else if (obj instanceof Pattern)
-				list.add((Pattern) obj);
+				matchers[i] = new ScreenMatcher(Region.All, (Pattern) obj);
 			else {
-				list.add(Pattern.compile(Pattern.quote(obj.toString())));
+				matchers[i] = ScreenMatcher.literal(Region.All, obj.toString());
 			}
 		}
-		return expect(timeout, list);
+		return expectScreen(timeout, matchers);
 	}
 	
 	public int expect(int timeout, List<Pattern> list) {
+		ScreenMatcher[] matchers = new ScreenMatcher[list.size()];
+		for (int i = 0; i < matchers.length; i++) {
+			matchers[i] = new ScreenMatcher(Region.All, list.get(i));
+		}
+		return expectScreen(timeout, matchers);
+	}
+	
+	public int expectScreen(ScreenMatcher... matchers) {
+		return expectScreen(getDefaultTimeout(), matchers);
+	}
+	
+	/**
+	 * Wait until one of the matchers matches the screen
+	 * @param timeout
+	 * @param matchers
+	 * @return The index of the matched matcher, RETV_TIMEOUT or RETV_EOF
+	 */
+	public int expectScreen(int timeout, ScreenMatcher... matchers) {
+		return expectScreenAfter(-1, timeout, matchers);
+	}
+	
+	/**
+	 * Wait until one of the matchers matches a frame newer than the given version
+	 * @param version
+	 * @param timeout
+	 * @param matchers
+	 * @return The index of the matched matcher, RETV_TIMEOUT or RETV_EOF
+	 */
+	public int expectScreenAfter(long version, int timeout, ScreenMatcher... matchers) {
 		
 		long endTime = System.currentTimeMillis() + (long) timeout;
 		
 		while (true) {
 			
-			String currentScreen = getScreen();
+			ScreenSnapshot frame = snapshot;
 			
-			for (int i = 0; i < list.size(); i++) {
-				Matcher m = list.get(i).matcher(currentScreen);
-				if (m.find()) {
-					int matchStart = m.start(), matchEnd = m.end();
-					beforeStr = currentScreen.substring(0, matchStart);
+			for (int i = 0; i < matchers.length && frame.getVersion() > version; i++) {
+				Matcher m = matchers[i].match(frame);
+				if (m != null) {
+					String currentScreen = frame.getText();
+					int offset = frame.getRowOffset(matchers[i].getFromRow(frame));
+					beforeStr = currentScreen.substring(0, offset + m.start());
 					matchStr = m.group();
-					afterStr = currentScreen.substring(matchEnd);
+					afterStr = currentScreen.substring(offset + m.end());
+					matchFrame = frame;
 					return i;
 				}
 			}
@@ -712,26 +1179,149 @@ public class PTTClient {
 				return RETV_TIMEOUT;
 			}
 			
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			// Re-evaluate only when new bytes have been rendered
+			if (!awaitScreenChange(frame.getVersion(), waitTime) && isEOF) {
+				return RETV_EOF;
 			}
 			
 		}
 		
 	}
 	
-	public void refresh() throws IOException {
-		refresh(300);
+	/**
+	 * Get the current screen version
+	 * @return
+	 */
+	public long getScreenVersion() {
+		return snapshot.getVersion();
 	}
 	
-	public void refresh(int waitTime) throws IOException {
-		send("\f");
+	/**
+	 * Wait until the screen version is newer than the given version
+	 * @param version
+	 * @param timeout
+	 * @return true if the screen has changed
+	 */
+	public boolean awaitScreenChange(long version, long timeout) {
+		long endTime = System.currentTimeMillis() + timeout;
+		screenLock.lock();
 		try {
-			Thread.sleep(waitTime);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			while (snapshot.getVersion() == version && !isEOF) {
+				long waitTime = endTime - System.currentTimeMillis();
+				if (waitTime <= 0) {
+					return false;
+				}
+				try {
+					screenChanged.await(waitTime, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return snapshot.getVersion() != version;
+		} finally {
+			screenLock.unlock();
+		}
+	}
+	
+	/**
+	 * Connect another server than ptt.cc (e.g. the local simulator)
+	 * @param host
+	 * @param port -1 for the default port of the protocol
+	 * @return
+	 */
+	public PTTClient setServer(String host, int port) {
+		this.host = host;
+		this.port = port;
+		return this;
+	}
+	
+	/**
+	 * Share a keystroke rate limit with other clients
+	 * @param rateLimiter null for no limit
+	 * @return
+	 */
+	public PTTClient setRateLimiter(KeystrokeRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		return this;
+	}
+	
+	/**
+	 * Whether the connection is open (the server has not closed it)
+	 * @return
+	 */
+	public boolean isConnected() {
+		return protocol != null && !isEOF;
+	}
+	
+	/**
+	 * Wait until the server has closed the connection
+	 * @param timeout
+	 * @return true if the connection has been closed
+	 */
+	public boolean awaitDisconnect(long timeout) {
+		long endTime = System.currentTimeMillis() + timeout;
+		screenLock.lock();
+		try {
+			while (!isEOF) {
+				long waitTime = endTime - System.currentTimeMillis();
+				if (waitTime <= 0) {
+					return false;
+				}
+				try {
+					screenChanged.await(waitTime, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			screenLock.unlock();
+		}
+	}
+	
+	/**
+	 * Wait until no frame has been published for the quiet time
+	 * @param quietTime
+	 * @param timeout
+	 * @return true if the screen has settled
+	 */
+	public boolean awaitScreenSettled(long quietTime, long timeout) {
+		long endTime = System.currentTimeMillis() + timeout;
+		while (awaitScreenChange(getScreenVersion(), quietTime)) {
+			if (System.currentTimeMillis() >= endTime) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Get the round trip estimator of this connection
+	 * @return
+	 */
+	public RttEstimator getRttEstimator() {
+		return rtt;
+	}
+	
+	/**
+	 * The give-up time of the expectations, stretched on slow links
+	 * @return Milliseconds
+	 */
+	public int getDefaultTimeout() {
+		return (int) Math.max(DEFAULT_TIMEOUT, 10 * rtt.getTimeout());
+	}
+	
+	/**
+	 * Redraw the screen and wait until the redraw has been rendered
+	 * @throws IOException
+	 */
+	public void refresh() throws IOException {
+		long version = getScreenVersion();
+		send("\f");
+		if (awaitScreenChange(version, rtt.getTimeout())) {
+			awaitScreenSettled(rtt.getSettleTime(), rtt.getTimeout());
 		}
 	}
 	
@@ -792,6 +1382,28 @@ public class PTTClient {
 		
 	}
 	
+	/**
+	 * Get the names of the hot boards, the most active first (PTT Web Version)
+	 * @param timeout
+	 * @return
+	 * @throws Exception
+	 */
+	public static List<String> getHotBoards(int timeout) throws Exception {
+		
+		Document doc = Jsoup.connect(HOT_BOARDS_URL)
+							.userAgent(UserAgent)
+							.timeout(timeout)
+							.cookie("over18", "1")
+							.get();
+		
+		List<String> boards = new ArrayList<String>();
+		for (Element name : doc.select(".b-ent .board-name")) {
+			boards.add(name.text().trim());
+		}
+		return boards;
+		
+	}
+	
 	/**
 	 * Download post by URL with real time update (PTT Web Version)
 	 * @param url
@@ -845,197 +1457,114 @@ public class PTTClient {
 		
 	}
 	
-	private void renderScreen() throws IOException {
+	/**
+	 * Feed the terminal of a connection from its stream
+	 * @param input
+	 * @param screen
+	 * @param readerGeneration
+	 * @throws IOException
+	 */
+	private void renderScreen(InputStream input, VT100Terminal screen, int readerGeneration) throws IOException {
 		
 		BufferedReader br = new BufferedReader(
-				new InputStreamReader(is, "UTF-8"));
-		PushbackReader pr = new PushbackReader(br, 128);
+				new InputStreamReader(input, "UTF-8"));
 		
 		int nc = 0;
 		char[] cb = new char[4096];
 		
-		while ((nc = pr.read(cb)) != -1) {
+		while ((nc = br.read(cb)) != -1) {
 			
 			if (isPrintSource) {
 				System.out.print(new String(cb, 0, nc));
 			}
 			
-			for (int pos = 0; pos < nc; pos++) {
-				
-				char c = cb[pos];
-				
-				switch (c) {
-				case 0x08:	// BS
-					if (--posX < 0) {
-						--posY;
-						posX = 79;
-					}
-					continue;
-				case 0x0A:	// LF
-					posY++;
-					break;
-				case 0x0D:	// CR
-					posX = 0;
-					break;
-				case 0x1B:	// ESC
-					int endPos = findEndPosOfVT100Conctrl(cb, nc, pos);
-					if (endPos == -1) {
-						pr.unread(cb, pos, nc - pos);
-						pos = nc;
-					} else {
-						String ctrlStr = new String(cb, pos, endPos - pos + 1);
-						Matcher matcher = VT100ControlPattern.matcher(ctrlStr);
-						if (matcher.find()) {
-							String code = matcher.group("code");
-							String type = matcher.group("type");
-							processVT100Conctrl(code, type);
-						} else {
-							log.error("Unknown VT100 Conctrl");
-						}
-						pos = endPos;
-					}
-					break;
-				default:
-					
-					if (c < 0x20 || c == 0x7F) {
-						//System.out.printf("ASCII Conctrl: %c(%x)\n----------\n", ch, (int)(ch));
-						continue;
-					}
-					
-					if (posX >= 0 && posY >= 0) {
-					
-						if (isHalfWidth(c)) {
-							screen[posY][posX] = c;
-						} else {
-							screen[posY][posX] = c;
-							if (posX < 79) {
-								screen[posY][++posX] = 0x00;
-							}
-						}
-						posX++;
-						if (posX >= 80) {
-							//posY++;
-							posX = 79;
-						}
-					
-					}
-				}
-				
-			}
+			// Partial escape sequences are kept by the terminal until the next read
+			screen.feed(cb, 0, nc);
 			
-			if (isPrintScreen) {
-				printScreen();
+			// Publish the frame when the read buffer is drained
+			if (!br.ready()) {
+				publishScreen(screen, readerGeneration);
+				if (isPrintScreen) {
+					printScreen();
+				}
 			}
 			
 		}
 		
-		pr.close();
 		br.close();
 		
 	}
 	
-	private int findEndPosOfVT100Conctrl(char[] cb, int nc, int pos) {
-		int endPos = -1;
-		for (int i = pos + 1; i < nc; i++) {
-			char ec = cb[i];
-			if (ec == 'A' || ec == 'B' || ec == 'C' || ec == 'D' || ec == 'H' ||
-				ec == 'J' || ec == 'K' || ec == 'm' || ec == 's' || ec == 'u') {
-				endPos = i;
-				break;
-			}
-		}
-		return endPos;
-	}
-	
-	private void processVT100Conctrl(String code, String type) {
-		
-		switch (type) {
-		case "m":
-			break;
-		case "H":
-			if (code.equals("")) {
-				// Cursor Home
-				posY = posX = 0;
-			} else {
-				// Cursor to position
-				final Pattern p = Pattern.compile("(?<Y>\\d+);(?<X>\\d+)");
-				Matcher m = p.matcher(code);
-				if (m.find()) {
-					posY = Integer.parseInt(m.group("Y")) - 1;
-					posX = Integer.parseInt(m.group("X")) - 1;
-				}
-			}
-			break;
-		case "J":
-			if (code.equals("2")) {
-				// Erases the screen with the background colour and moves the cursor to home.
-				clearScreen();
-				posY = posX = 0;
-			} else if (code.equals("1")) {
-				// Erases the screen from the current line up to the top of the screen.
-				for (int i=0; i<=posY; i++) {
-					Arrays.fill(screen[i], ' ');
-				}
-			} else if (code.equals("")) {
-				// Erases the screen from the current line down to the bottom of the screen.
-				for (int i=posY; i<24; i++) {
-					Arrays.fill(screen[i], ' ');
-				}
+	/**
+	 * Publish the screen buffer of a connection as an immutable snapshot and wake up the waiters
+	 * @param screen
+	 * @param readerGeneration The connection of the reader (the frames of a closed connection are dropped)
+	 */
+	private void publishScreen(VT100Terminal screen, int readerGeneration) {
+		ScreenSnapshot previous = snapshot;
+		ScreenSnapshot frame = screen.snapshot(previous.getVersion() + 1);
+		frame.setState(ScreenState.classify(frame, previous.getState(), previous.getVersion()));
+		screenLock.lock();
+		try {
+			if (readerGeneration != generation) {
+				return;
 			}
-			break;
-		case "K":
-			if (code.equals("")) {
-				// Erases from the current cursor position to the end of the current line.
-				for (int i=posX; i<80; i++) {
-					screen[posY][i] = ' ';
-				}
-			} else if (code.equals("1")) {
-				// Erases from the current cursor position to the start of the current line.
-				for (int i=0; i<posX; i++) {
-					screen[posY][i] = ' ';
-				}
-			} else if (code.equals("2")) {
-				// Erases the entire current line.
-				for (int i=0; i<80; i++) {
-					screen[posY][i] = ' ';
-				}
+			long now = System.nanoTime();
+			if (sendVersion >= 0) {
+				rtt.addRttSample((now - sendTime) / 1e6);
+				sendVersion = -1;
+			} else if (frameTime > 0 && now - frameTime < rtt.getTimeout() * 1000000L) {
+				rtt.addFrameGapSample((now - frameTime) / 1e6);
 			}
-			break;
-		default:
-			// TODO
-			log.error("Un implement type: " + type);
+			frameTime = now;
+			snapshot = frame;
+			screenChanged.signalAll();
+		} finally {
+			screenLock.unlock();
+		}
+		for (FrameListener listener : frameListeners) {
+			listener.onFrame(frame);
 		}
-		
 	}
 	
-	private void send(String message) throws IOException {
-		os.write(message.getBytes());
-		os.flush();
+	/**
+	 * Be notified of every published frame (called on the render thread)
+	 * @param listener
+	 */
+	public void addFrameListener(FrameListener listener) {
+		frameListeners.add(listener);
 	}
 	
-	private boolean isHalfWidth(char c) {
-	    return '\u0000' <= c && c <= '\u00FF'
-	        || '\uFF61' <= c && c <= '\uFFDC'
-	        || '\uFFE8' <= c && c <= '\uFFEE';
+	public void removeFrameListener(FrameListener listener) {
+		frameListeners.remove(listener);
 	}
 	
-	private void printScreen() {
-		
-		for (int i=0; i<24; i++) {
-			for (int j=0; j<80; j++) {
-				if (screen[i][j] != 0x00) {
-					System.out.print(screen[i][j]);
-				}
+	void send(String message) throws IOException {
+		if (rateLimiter != null) {
+			try {
+				rateLimiter.acquire(message.length());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the keystroke rate limit.");
 			}
-			System.out.println();
 		}
-		
+		screenLock.lock();
+		try {
+			// Time the first frame after the keys (a pending measurement is kept unless the keys got no response)
+			long now = System.nanoTime();
+			if (snapshot != null && (sendVersion < 0 || now - sendTime > getDefaultTimeout() * 1000000L)) {
+				sendTime = now;
+				sendVersion = snapshot.getVersion();
+			}
+		} finally {
+			screenLock.unlock();
+		}
+		os.write(message.getBytes());
+		os.flush();
 	}
 	
-	private void clearScreen() {
-		for (int i=0; i<72; i++) {
-			Arrays.fill(screen[i], (char) (' '));
-		}
+	private void printScreen() {
+		System.out.print(snapshot.getText());
 	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,56 @@
+package crawler.client;
+
+import java.io.IOException;
+
+import crawler.client.PTTClient.LineSink;
+
+/**
+ * Remember the last line of a post which has been completely pushed to the sink,
+ * so that a download interrupted by a disconnection can be resumed from the next line.
+ * Lines which have already been pushed are dropped when they arrive again.
+ */
+public class PostCheckpoint implements LineSink {
+	
+	private final long aid;
+	private final LineSink sink;
+	private int lastLine = 0;
+	
+	/**
+	 * @param aid The packed AID of the post
+	 * @param sink
+	 */
+	public PostCheckpoint(long aid, LineSink sink) {
+		this.aid = aid;
+		this.sink = sink;
+	}
+	
+	@Override
+	public void line(int lineNumber, String text) throws IOException {
+		if (lineNumber <= lastLine) {
+			return;
+		}
+		sink.line(lineNumber, text);
+		lastLine = lineNumber;
+	}
+	
+	public long getAID() {
+		return aid;
+	}
+	
+	/**
+	 * The last line pushed to the sink
+	 * @return 0 if no line has been pushed
+	 */
+	public int getLastLine() {
+		return lastLine;
+	}
+	
+	/**
+	 * The line to resume the download from
+	 * @return
+	 */
+	public int getNextLine() {
+		return lastLine + 1;
+	}
+	
+}
@@ -0,0 +1,236 @@
+package crawler.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hand out the entry numbers of a board to the crawling workers, each number exactly once.
+ * <p>
+ * The numbers start as one contiguous range per worker, so a worker walks down its range with one key per entry.
+ * A worker which has finished its range steals the upper half of the unreserved tail of the busiest range,
+ * so the slices full of long posts are shared instead of leaving the other workers idle.
+ * A tail shorter than twice the minimum steal is not split, because the jump to a stolen range costs a few round trips.
+ * <p>
+ * A worker which finds nothing to take waits while other ranges are still being walked, because a failed worker
+ * gives the rest of its range back. It uses a lock instead of a monitor, so the waiting virtual threads do not pin their carriers.
+ */
+public class RangeScheduler {
+	
+	public static final int DEFAULT_MIN_STEAL = 8;
+	
+	/**
+	 * A contiguous range of entry numbers owned by one worker (guarded by the lock of the scheduler)
+	 */
+	public static class Range {
+		
+		private final int from;	// The first number
+		private int next;		// The next number to reserve
+		private int end;		// The last number (inclusive)
+		
+		private Range(int from, int end) {
+			this.from = from;
+			this.next = from;
+			this.end = end;
+		}
+		
+		private int getRemaining() {
+			return end - next + 1;
+		}
+		
+		@Override
+		public String toString() {
+			return next + "~" + end;
+		}
+		
+	}
+	
+	private final int minSteal;
+	private final Deque<Range> pending = new ArrayDeque<Range>();
+	private final List<Range> active = new ArrayList<Range>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();	// A range has been finished or given back
+	private int steals = 0;
+	
+	/**
+	 * @param from The first entry number
+	 * @param to The last entry number (inclusive)
+	 * @param workers The number of the initial ranges
+	 */
+	public RangeScheduler(int from, int to, int workers) {
+		this(from, to, workers, DEFAULT_MIN_STEAL);
+	}
+	
+	/**
+	 * @param from The first entry number
+	 * @param to The last entry number (inclusive)
+	 * @param workers The number of the initial ranges
+	 * @param minSteal The minimum size of a stolen range
+	 */
+	public RangeScheduler(int from, int to, int workers, int minSteal) {
+		this.minSteal = Math.max(1, minSteal);
+		int count = to - from + 1;
+		workers = Math.max(1, Math.min(workers, count));
+		for (int i=0, start=from; i<workers && count > 0; i++) {
+			int size = count / workers + (i < count % workers ? 1 : 0);	// Spread the remainder
+			pending.add(new Range(start, start + size - 1));
+			start += size;
+		}
+	}
+	
+	/**
+	 * Take a range to work on: an unassigned range, or the stolen tail of the busiest range.
+	 * If nothing can be taken, wait until the active ranges are finished or one of them is given back.
+	 * @return null if no work is left (or the thread is interrupted)
+	 */
+	public Range take() {
+		lock.lock();
+		try {
+			Range range;
+			while ((range = poll()) == null && !active.isEmpty()) {
+				try {
+					changed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			return range;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Take a range to work on without waiting
+	 * @return null if no work is left worth taking now
+	 */
+	public Range poll() {
+		
+		lock.lock();
+		try {
+			
+			Range range = pending.poll();
+			
+			if (range == null) {
+				Range victim = null;
+				for (Range r : active) {
+					if (victim == null || r.getRemaining() > victim.getRemaining()) {
+						victim = r;
+					}
+				}
+				if (victim == null || victim.getRemaining() < 2 * minSteal) {
+					return null;
+				}
+				int mid = victim.next + victim.getRemaining() / 2;
+				range = new Range(mid, victim.end);
+				victim.end = mid - 1;
+				steals++;
+			}
+			
+			active.add(range);
+			return range;
+			
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Whether {@link #poll()} would hand out a range now
+	 * @return
+	 */
+	public boolean hasWork() {
+		lock.lock();
+		try {
+			if (!pending.isEmpty()) {
+				return true;
+			}
+			for (Range r : active) {
+				if (r.getRemaining() >= 2 * minSteal) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Reserve the next number of the range
+	 * @param range
+	 * @return The number, or -1 if the range is finished (it must not be used any more)
+	 */
+	public int next(Range range) {
+		lock.lock();
+		try {
+			if (range.next > range.end) {
+				if (active.remove(range)) {
+					changed.signalAll();
+				}
+				return -1;
+			}
+			return range.next++;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Give back the rest of a range whose worker has failed, so that another worker takes it
+	 * @param range
+	 * @param retryLast Whether the last reserved number is given back too (it has not been finished)
+	 */
+	public void abort(Range range, boolean retryLast) {
+		lock.lock();
+		try {
+			active.remove(range);
+			int rest = retryLast ? Math.max(range.from, range.next - 1) : range.next;
+			if (rest <= range.end) {
+				pending.addFirst(new Range(rest, range.end));
+			}
+			range.next = range.end + 1;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * The number of entries not reserved yet
+	 * @return
+	 */
+	public int getRemaining() {
+		lock.lock();
+		try {
+			int remaining = 0;
+			for (Range r : pending) {
+				remaining += r.getRemaining();
+			}
+			for (Range r : active) {
+				remaining += r.getRemaining();
+			}
+			return remaining;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * The number of the ranges split by the idle workers
+	 * @return
+	 */
+	public int getSteals() {
+		lock.lock();
+		try {
+			return steals;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+}
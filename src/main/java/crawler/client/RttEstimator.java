@@ -0,0 +1,79 @@
+package crawler.client;
+
+/**
+ * Estimate the round trip time (send to screen change) and the gap between the frames of one response
+ * by exponentially weighted moving averages, as the TCP retransmission timer does (RFC 6298).
+ */
+public class RttEstimator {
+	
+	private static final double ALPHA = 0.125;
+	private static final double BETA = 0.25;
+	
+	private static final long INITIAL_TIMEOUT = 1000;
+	private static final long MIN_TIMEOUT = 50;
+	private static final long MAX_TIMEOUT = 60 * 1000;
+	
+	// Milliseconds (negative if there is no sample yet)
+	private double srtt = -1;
+	private double rttvar = 0;
+	private double frameGap = -1;
+	
+	/**
+	 * Add a sample of the time from sending keys to the first screen change
+	 * @param rtt
+	 */
+	public synchronized void addRttSample(double rtt) {
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+			srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+		}
+	}
+	
+	/**
+	 * Add a sample of the time between two frames of the same response (the server render time)
+	 * @param gap
+	 */
+	public synchronized void addFrameGapSample(double gap) {
+		frameGap = frameGap < 0 ? gap : (1 - ALPHA) * frameGap + ALPHA * gap;
+	}
+	
+	/**
+	 * The smoothed round trip time
+	 * @return Milliseconds, or -1 if unknown
+	 */
+	public synchronized long getRtt() {
+		return (long) Math.ceil(srtt);
+	}
+	
+	/**
+	 * The time to wait for a response before assuming it is lost (srtt + 4 * rttvar)
+	 * @return Milliseconds
+	 */
+	public synchronized long getTimeout() {
+		if (srtt < 0) {
+			return INITIAL_TIMEOUT;
+		}
+		long timeout = (long) Math.ceil(srtt + 4 * rttvar);
+		return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+	}
+	
+	/**
+	 * The quiet time after which a response is assumed to be completely rendered
+	 * @return Milliseconds
+	 */
+	public synchronized long getSettleTime() {
+		long timeout = getTimeout();
+		if (frameGap < 0) {
+			return Math.min(100, timeout);
+		}
+		return Math.max(10, Math.min(timeout, (long) Math.ceil(2 * frameGap)));
+	}
+	
+	public synchronized String toString() {
+		return String.format("RTT: %.1f ms (var %.1f ms), frame gap: %.1f ms", srtt, rttvar, frameGap);
+	}
+	
+}
@@ -0,0 +1,168 @@
+package crawler.client;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A precompiled screen matcher which is scoped to a region of the screen.
+ * The literal anchors are checked with indexOf before the regex is run,
+ * and the guard (e.g. the header of the board) must be matched as well.
+ */
+public class ScreenMatcher {
+	
+	public static enum Region {
+		Header,		// The first row
+		Footer,		// The last row
+		Body,		// The rows between the header and the footer
+		CursorLine,	// The row of the cursor
+		All
+	}
+	
+	private final Region region;
+	private final Pattern pattern;
+	private String[] anchors = new String[0];
+	private ScreenMatcher guard = null;
+	
+	public ScreenMatcher(Region region, Pattern pattern) {
+		this.region = region;
+		this.pattern = pattern;
+	}
+	
+	public ScreenMatcher(Region region, String regex) {
+		this(region, Pattern.compile(regex));
+	}
+	
+	/**
+	 * Create a matcher of the literal text
+	 * @param region
+	 * @param text
+	 * @return
+	 */
+	public static ScreenMatcher literal(Region region, String text) {
+		return new ScreenMatcher(region, Pattern.compile(Pattern.quote(text))).setAnchors(text);
+	}
+	
+	/**
+	 * The literals which must appear in the region before the regex is run
+	 * @param anchors
+	 * @return
+	 */
+	public ScreenMatcher setAnchors(String... anchors) {
+		this.anchors = anchors;
+		return this;
+	}
+	
+	/**
+	 * Another matcher which must be matched on the same frame
+	 * @param guard
+	 * @return
+	 */
+	public ScreenMatcher setGuard(ScreenMatcher guard) {
+		this.guard = guard;
+		return this;
+	}
+	
+	public Region getRegion() {
+		return region;
+	}
+	
+	public Pattern getPattern() {
+		return pattern;
+	}
+	
+	/**
+	 * Get the first row of the region
+	 * @param frame
+	 * @return
+	 */
+	public int getFromRow(ScreenSnapshot frame) {
+		switch (region) {
+		case Footer:
+			return frame.getRows() - 1;
+		case Body:
+			return 1;
+		case CursorLine:
+			return Math.max(0, Math.min(frame.getPosY(), frame.getRows() - 1));
+		case Header:
+		case All:
+		default:
+			return 0;
+		}
+	}
+	
+	/**
+	 * Get the text of the region
+	 * @param frame
+	 * @return
+	 */
+	public String getRegionText(ScreenSnapshot frame) {
+		int rows = frame.getRows();
+		switch (region) {
+		case Header:
+		case Footer:
+		case CursorLine:
+			return frame.getRowText(getFromRow(frame));
+		case Body:
+			StringBuilder sb = new StringBuilder((rows - 2) * (frame.getCols() + 1));
+			for (int i=1; i<rows-1; i++) {
+				sb.append(frame.getRowText(i)).append("\n");
+			}
+			return sb.toString();
+		case All:
+		default:
+			return frame.getText();
+		}
+	}
+	
+	/**
+	 * Check whether the literal anchors appear in the region
+	 * @param frame
+	 * @return
+	 */
+	private boolean containsAnchors(ScreenSnapshot frame) {
+		if (anchors.length == 0) {
+			return true;
+		}
+		if (region == Region.Body) {
+			// Check each row to avoid building the text of the body
+			for (String anchor : anchors) {
+				boolean found = false;
+				for (int i=1; i<frame.getRows()-1 && !found; i++) {
+					found = frame.getRowText(i).indexOf(anchor) >= 0;
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			return true;
+		}
+		String text = getRegionText(frame);
+		for (String anchor : anchors) {
+			if (text.indexOf(anchor) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Match the frame
+	 * @param frame
+	 * @return The matcher which has found the pattern in the region text, or null
+	 */
+	public Matcher match(ScreenSnapshot frame) {
+		if (!containsAnchors(frame)) {
+			return null;
+		}
+		if (guard != null && guard.match(frame) == null) {
+			return null;
+		}
+		Matcher m = pattern.matcher(getRegionText(frame));
+		return m.find() ? m : null;
+	}
+	
+	public String toString() {
+		return region + ": " + pattern.pattern();
+	}
+	
+}
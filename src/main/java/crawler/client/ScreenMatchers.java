@@ -0,0 +1,74 @@
+package crawler.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import crawler.client.ScreenMatcher.Region;
+
+/**
+ * Registry of the screen matchers, which are compiled only once
+ */
+public class ScreenMatchers {
+	
+	private static final ConcurrentHashMap<String, ScreenMatcher> boards = new ConcurrentHashMap<String, ScreenMatcher>();
+	private static final ConcurrentHashMap<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+	
+	// 主選單 (【主功能表】.*批踢踢實業坊.*呼叫器)
+	public static final ScreenMatcher MAIN_MENU = new ScreenMatcher(Region.Footer, "呼叫器")
+			.setAnchors("呼叫器")
+			.setGuard(ScreenMatcher.literal(Region.Header, "【主功能表】"));
+	
+	// 看板 (文章選讀.*回應.*推文.*轉錄.*相關主題.*找標題/作者.*進板畫面)
+	public static final ScreenMatcher BOARD_FOOTER = new ScreenMatcher(Region.Footer, "文章選讀.*相關主題.*找標題/作者.*進板畫面")
+			.setAnchors("文章選讀", "進板畫面");
+	
+	// 貼文 (瀏覽.*第.*頁.*目前顯示.*第.*行.*離開)
+	public static final ScreenMatcher POST_FOOTER = new ScreenMatcher(Region.Footer, "瀏覽.*第.*頁.*目前顯示.*第.*行.*離開")
+			.setAnchors("瀏覽", "目前顯示", "離開");
+	
+	public static final ScreenMatcher PRESS_ANY_KEY = ScreenMatcher.literal(Region.All, "請按任意鍵繼續");
+	public static final ScreenMatcher POST_VARIES = ScreenMatcher.literal(Region.All, "此頁內容會依閱讀者不同");
+	public static final ScreenMatcher POST_EMPTY = new ScreenMatcher(Region.All, "此文章無內容[\\s\\S]*按任意鍵繼續")
+			.setAnchors("此文章無內容", "按任意鍵繼續");
+	
+	public static final ScreenMatcher POPULARITY = new ScreenMatcher(Region.All, "編號.*日.*期.*作.*者.*文.*章.*標.*題.*人氣:\\d+")
+			.setAnchors("人氣:");
+	
+	/**
+	 * Get the matcher of the board list screen (看板《boardName》 and the board footer)
+	 * @param boardName
+	 * @return
+	 */
+	public static ScreenMatcher board(String boardName) {
+		ScreenMatcher matcher = boards.get(boardName);
+		if (matcher == null) {
+			String header = "看板《" + boardName + "》";
+			matcher = new ScreenMatcher(BOARD_FOOTER.getRegion(), BOARD_FOOTER.getPattern())
+					.setAnchors("文章選讀", "進板畫面")
+					.setGuard(ScreenMatcher.literal(Region.Header, header));
+			ScreenMatcher old = boards.putIfAbsent(boardName, matcher);
+			if (old != null) {
+				matcher = old;
+			}
+		}
+		return matcher;
+	}
+	
+	/**
+	 * Get the compiled pattern of the regex
+	 * @param regex
+	 * @return
+	 */
+	public static Pattern compile(String regex) {
+		Pattern pattern = patterns.get(regex);
+		if (pattern == null) {
+			pattern = Pattern.compile(regex);
+			Pattern old = patterns.putIfAbsent(regex, pattern);
+			if (old != null) {
+				pattern = old;
+			}
+		}
+		return pattern;
+	}
+	
+}
@@ -0,0 +1,165 @@
+package crawler.client;
+
+/**
+ * An immutable, consistent frame of the terminal screen.
+ * It is published by the render thread at frame boundaries and can be read by any thread without locking.
+ */
+public final class ScreenSnapshot {
+	
+	private final long version;
+	private final int rows;
+	private final int cols;
+	private final int[] cells;
+	private final String[] rowTexts;
+	private final long[] rowVersions;
+	private final int posX;
+	private final int posY;
+	
+	// Built on the first request
+	private volatile String text = null;
+	
+	// Classified by the render thread before the frame is published
+	private ScreenState state = ScreenState.UNKNOWN;
+	
+	public ScreenSnapshot(long version, int rows, int cols, int[] cells, String[] rowTexts, long[] rowVersions, int posX, int posY) {
+		this.version = version;
+		this.rows = rows;
+		this.cols = cols;
+		this.cells = cells;
+		this.rowTexts = rowTexts;
+		this.rowVersions = rowVersions;
+		this.posX = posX;
+		this.posY = posY;
+	}
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Get the classified state of the screen
+	 * @return
+	 */
+	public ScreenState getState() {
+		return state;
+	}
+	
+	void setState(ScreenState state) {
+		this.state = state;
+	}
+	
+	/**
+	 * Get the text of the screen (one line per row)
+	 * @return
+	 */
+	public String getText() {
+		String str = text;
+		if (str == null) {
+			StringBuilder sb = new StringBuilder(rows * (cols + 1));
+			for (int i=0; i<rows; i++) {
+				sb.append(rowTexts[i]).append("\n");
+			}
+			text = str = sb.toString();
+		}
+		return str;
+	}
+	
+	/**
+	 * Get the cached text of the row
+	 * @param row
+	 * @return
+	 */
+	public String getRowText(int row) {
+		return rowTexts[row];
+	}
+	
+	/**
+	 * Get the offset of the row in the text of the screen
+	 * @param row
+	 * @return
+	 */
+	public int getRowOffset(int row) {
+		int offset = 0;
+		for (int i=0; i<row; i++) {
+			offset += rowTexts[i].length() + 1;
+		}
+		return offset;
+	}
+	
+	/**
+	 * Get the version of the frame in which the row was changed last time
+	 * @param row
+	 * @return
+	 */
+	public long getRowVersion(int row) {
+		return rowVersions[row];
+	}
+	
+	/**
+	 * Get the rows which are changed after the given version
+	 * @param sinceVersion
+	 * @return The row indexes in ascending order
+	 */
+	public int[] getChangedRows(long sinceVersion) {
+		int n = 0;
+		for (int i=0; i<rows; i++) {
+			if (rowVersions[i] > sinceVersion) {
+				n++;
+			}
+		}
+		int[] changed = new int[n];
+		for (int i=0, j=0; i<rows; i++) {
+			if (rowVersions[i] > sinceVersion) {
+				changed[j++] = i;
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Get the text of the screen with ANSI colour sequences
+	 * @return
+	 */
+	public String getAnsiText() {
+		StringBuilder sb = new StringBuilder(rows * (cols + 1));
+		for (int i=0; i<rows; i++) {
+			CellBuffer.appendAnsi(sb, cells, i * cols, (i + 1) * cols);
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Get a zero-copy text view of the row
+	 * @param row
+	 * @return
+	 */
+	public CellRow getRow(int row) {
+		return new CellRow(cells, row * cols, cols);
+	}
+	
+	public int getCell(int row, int col) {
+		return cells[row * cols + col];
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getCols() {
+		return cols;
+	}
+	
+	public int getPosX() {
+		return posX;
+	}
+	
+	public int getPosY() {
+		return posY;
+	}
+	
+	public String toString() {
+		return getText();
+	}
+	
+}
@@ -0,0 +1,115 @@
+package crawler.client;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import crawler.client.PTTClient.Screen;
+
+/**
+ * The kind of the screen and the parsed footer fields.
+ * It is classified by the render thread from the header and footer rows,
+ * and only re-classified when one of these rows has changed.
+ */
+public final class ScreenState {
+	
+	public static final ScreenState UNKNOWN = new ScreenState(Screen.Unknown, null, -1, -1, -1);
+	
+	private static final Pattern BOARD_NAME_PATTERN = Pattern.compile("看板《(?<board>[^》]+)》");
+	private static final Pattern PROGRESS_PATTERN = Pattern.compile("(?<percent>\\d+)%[^\\d]*(?<from>\\d+)~(?<to>\\d+)");
+	
+	private final Screen screen;
+	private final String boardName;
+	private final int percent;
+	private final int fromLine;
+	private final int toLine;
+	
+	public ScreenState(Screen screen, String boardName, int percent, int fromLine, int toLine) {
+		this.screen = screen;
+		this.boardName = boardName;
+		this.percent = percent;
+		this.fromLine = fromLine;
+		this.toLine = toLine;
+	}
+	
+	/**
+	 * Classify the frame
+	 * @param frame
+	 * @param previous The state of the previous frame
+	 * @param previousVersion The version of the previous frame
+	 * @return
+	 */
+	public static ScreenState classify(ScreenSnapshot frame, ScreenState previous, long previousVersion) {
+		
+		int footerRow = frame.getRows() - 1;
+		if (previous != null &&
+			frame.getRowVersion(0) <= previousVersion &&
+			frame.getRowVersion(footerRow) <= previousVersion) {
+			return previous;
+		}
+		
+		if (ScreenMatchers.POST_FOOTER.match(frame) != null) {
+			Matcher m = PROGRESS_PATTERN.matcher(frame.getRowText(footerRow));
+			if (m.find()) {
+				return new ScreenState(Screen.Post, null,
+						Integer.parseInt(m.group("percent")),
+						Integer.parseInt(m.group("from")),
+						Integer.parseInt(m.group("to")));
+			}
+			return new ScreenState(Screen.Post, null, -1, -1, -1);
+		}
+		
+		if (ScreenMatchers.BOARD_FOOTER.match(frame) != null) {
+			Matcher m = BOARD_NAME_PATTERN.matcher(frame.getRowText(0));
+			if (m.find()) {
+				return new ScreenState(Screen.Board, m.group("board"), -1, -1, -1);
+			}
+		}
+		
+		if (ScreenMatchers.MAIN_MENU.match(frame) != null) {
+			return new ScreenState(Screen.MainMenu, null, -1, -1, -1);
+		}
+		
+		return UNKNOWN;
+		
+	}
+	
+	public Screen getScreen() {
+		return screen;
+	}
+	
+	/**
+	 * The board name in the header (Board screen only)
+	 * @return
+	 */
+	public String getBoardName() {
+		return boardName;
+	}
+	
+	/**
+	 * The progress of the pager (Post screen only)
+	 * @return
+	 */
+	public int getPercent() {
+		return percent;
+	}
+	
+	public int getFromLine() {
+		return fromLine;
+	}
+	
+	public int getToLine() {
+		return toLine;
+	}
+	
+	public String toString() {
+		switch (screen) {
+		case Board:
+			return screen + " 《" + boardName + "》";
+		case Post:
+			return String.format("%s %d~%d (%d%%)", screen, fromLine, toLine, percent);
+		default:
+			return screen.toString();
+		}
+	}
+	
+}
@@ -0,0 +1,349 @@
+package crawler.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import crawler.client.PTTClient.Protocol;
+import crawler.client.PTTClient.Screen;
+
+/**
+ * Keep logged-in clients warm and lease them to the crawling tasks.
+ * <p>
+ * The sessions are spread over the accounts, each one capped by its maximum sessions,
+ * and all of them may share one keystroke rate limiter.
+ * <p>
+ * A released client is checked by its screen state; a dead one is closed and replaced in the background.
+ * The pool remembers the board each idle client is on, so a lease for the same board skips {@link PTTClient#toBoard(String)}.
+ */
+public class SessionPool {
+	
+	private static final Logger log = Logger.getLogger(SessionPool.class);
+	private static final long RETRY_DELAY = 5 * 1000;
+	
+	private final Protocol protocol;
+	private final List<Account> accounts;
+	private final int screenRows;
+	private final int size;
+	private KeystrokeRateLimiter rateLimiter = null;
+	private String host = PTTClient.DEFAULT_HOST;
+	private int port = -1;
+	
+	private final LinkedBlockingDeque<PTTClient> idle = new LinkedBlockingDeque<PTTClient>();
+	private final Map<PTTClient, String> boards = new ConcurrentHashMap<PTTClient, String>();
+	private final Map<PTTClient, Account> owners = new ConcurrentHashMap<PTTClient, Account>();
+	private final Map<Account, Integer> sessions = new HashMap<Account, Integer>();	// Guarded by itself
+	private final ExecutorService opener;
+	private volatile boolean isClosed = false;
+	
+	/**
+	 * @param protocol
+	 * @param username
+	 * @param password
+	 * @param screenRows
+	 * @param size The number of sessions kept by the pool
+	 */
+	public SessionPool(Protocol protocol, String username, String password, int screenRows, int size) {
+		this(protocol, Collections.singletonList(new Account(username, password, size)), screenRows);
+	}
+	
+	/**
+	 * @param protocol
+	 * @param accounts The pool keeps the maximum sessions of every account
+	 * @param screenRows
+	 */
+	public SessionPool(Protocol protocol, List<Account> accounts, int screenRows) {
+		if (accounts.isEmpty()) {
+			throw new IllegalArgumentException("Require at least one account.");
+		}
+		int size = 0;
+		for (Account account : accounts) {
+			size += account.getMaxSessions();
+			sessions.put(account, 0);
+		}
+		this.protocol = protocol;
+		this.accounts = new ArrayList<Account>(accounts);
+		this.screenRows = screenRows;
+		this.size = size;
+		this.opener = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Open PTT sessions");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Share the keystroke rate limiter among all the sessions (set before start)
+	 * @param rateLimiter
+	 * @return
+	 */
+	public SessionPool setRateLimiter(KeystrokeRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		return this;
+	}
+	
+	/**
+	 * Connect the sessions to another server, e.g. the local simulator (set before start)
+	 * @param host
+	 * @param port -1 for the default port of the protocol
+	 * @return
+	 */
+	public SessionPool setServer(String host, int port) {
+		this.host = host;
+		this.port = port;
+		return this;
+	}
+	
+	/**
+	 * Open the first session now and the others in the background
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		idle.add(open());
+		for (int i=1; i<size; i++) {
+			replace();
+		}
+	}
+	
+	/**
+	 * Lease a client which is on the board, preferring a client already there
+	 * @param boardName
+	 * @param timeout
+	 * @return
+	 * @throws Exception If no session is available, or the board can not be entered (the session stays in the pool)
+	 */
+	public PTTClient lease(String boardName, long timeout) throws Exception {
+		
+		long endTime = System.currentTimeMillis() + timeout;
+		
+		while (true) {
+			
+			PTTClient client = takeOnBoard(boardName);
+			if (client == null) {
+				long waitTime = endTime - System.currentTimeMillis();
+				client = waitTime > 0 ? idle.poll(waitTime, TimeUnit.MILLISECONDS) : null;
+				if (client == null) {
+					throw new Exception("No session is available.");
+				}
+			}
+			
+			if (!isHealthy(client)) {
+				discard(client);
+				continue;
+			}
+			
+			try {
+				if (!boardName.equals(boards.get(client))) {
+					client.toBoard(boardName);
+					boards.put(client, boardName);
+				}
+				return client;
+			} catch (Exception e) {
+				// The board may not exist or be readable, which another session would not fix
+				log.warn("Fail to enter the board: " + e.getMessage());
+				boards.remove(client);
+				if (!isHealthy(client)) {
+					discard(client);
+					continue;
+				}
+				idle.addFirst(client);
+				throw e;
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Return the client to the pool
+	 * @param client
+	 */
+	public void release(PTTClient client) {
+		if (isClosed || !isHealthy(client)) {
+			discard(client);
+			return;
+		}
+		ScreenState state = client.getScreenState();
+		if (state.getScreen() == Screen.Board) {
+			boards.put(client, state.getBoardName());
+		} else {
+			boards.remove(client);
+		}
+		idle.addFirst(client);
+	}
+	
+	/**
+	 * Log out all the idle clients (the leased clients are closed when they are released)
+	 */
+	public void close() {
+		isClosed = true;
+		opener.shutdownNow();
+		PTTClient client;
+		while ((client = idle.poll()) != null) {
+			discard(client);
+		}
+	}
+	
+	/**
+	 * The number of sessions kept by the pool (the sum of the maximum sessions of the accounts)
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * The number of idle clients
+	 * @return
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+	
+	private PTTClient takeOnBoard(String boardName) {
+		for (PTTClient client : idle) {
+			if (boardName.equals(boards.get(client)) && idle.remove(client)) {
+				return client;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * A client is healthy if it is connected and on a known screen (or can go back to the main menu)
+	 * @param client
+	 * @return
+	 */
+	private boolean isHealthy(PTTClient client) {
+		if (!client.isConnected()) {
+			return false;
+		}
+		if (client.getScreenState().getScreen() != Screen.Unknown) {
+			return true;
+		}
+		try {
+			client.toMainMenu();
+			boards.remove(client);
+		} catch (Exception e) {
+			return false;
+		}
+		return client.isConnected() && client.getScreenState().getScreen() == Screen.MainMenu;
+	}
+	
+	private PTTClient open() throws Exception {
+		Account account = reserveAccount();
+		PTTClient client = new PTTClient(screenRows).setServer(host, port).setRateLimiter(rateLimiter);
+		try {
+			client.connect(protocol);
+			client.login(account.getUsername(), account.getPassword(), true);	// Keep the other sessions of the pool
+			owners.put(client, account);
+			return client;
+		} catch (Exception e) {
+			releaseAccount(account);
+			try {
+				client.close();
+			} catch (IOException e2) {
+				// Not connected
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Take a session of the least loaded account which is under its cap
+	 * @return
+	 * @throws Exception
+	 */
+	private Account reserveAccount() throws Exception {
+		synchronized (sessions) {
+			Account best = null;
+			double bestLoad = 1;
+			for (Account account : accounts) {
+				double load = (double) sessions.get(account) / account.getMaxSessions();
+				if (load < bestLoad) {
+					best = account;
+					bestLoad = load;
+				}
+			}
+			if (best == null) {
+				throw new Exception("All the accounts have reached their maximum sessions.");
+			}
+			sessions.put(best, sessions.get(best) + 1);
+			return best;
+		}
+	}
+	
+	private void releaseAccount(Account account) {
+		synchronized (sessions) {
+			sessions.put(account, sessions.get(account) - 1);
+		}
+	}
+	
+	private void discard(PTTClient client) {
+		boards.remove(client);
+		Account account = owners.remove(client);
+		try {
+			if (client.isConnected()) {
+				client.logout();
+			}
+			client.close();
+		} catch (Exception e) {
+			log.warn("Fail to close the session: " + e.getMessage());
+		}
+		if (account != null) {
+			releaseAccount(account);
+		}
+		if (!isClosed) {
+			replace();
+		}
+	}
+	
+	/**
+	 * Open a new session in the background
+	 */
+	private void replace() {
+		try {
+			opener.execute(new Runnable() {
+				@Override
+				public void run() {
+					while (!isClosed) {
+						try {
+							PTTClient client = open();
+							if (isClosed) {
+								discard(client);
+							} else {
+								idle.addLast(client);
+							}
+							return;
+						} catch (Exception e) {
+							log.warn("Fail to open a session: " + e.getMessage());
+						}
+						try {
+							Thread.sleep(RETRY_DELAY);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The pool has been closed
+		}
+	}
+	
+}
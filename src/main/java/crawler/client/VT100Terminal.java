@@ -0,0 +1,362 @@
+package crawler.client;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * VT100 terminal model.
+ * The escape sequences are parsed by a char-level state machine which keeps the partial sequence across reads,
+ * so rendering does not allocate any String, regex or boxed number.
+ */
+public class VT100Terminal {
+	
+	private static final Logger log = Logger.getLogger(VT100Terminal.class);
+	
+	// Parser states
+	private static final int STATE_GROUND = 0;
+	private static final int STATE_ESC = 1;
+	private static final int STATE_ESC_INTERMEDIATE = 2;
+	private static final int STATE_CSI = 3;
+	
+	private static final int MAX_PARAMS = 16;
+	
+	private final int rows;
+	private final int cols;
+	private final CellBuffer buffer;
+	
+	// Cached text and the version of the last change of each row
+	private final String[] rowTexts;
+	private final long[] rowVersions;
+	
+	// Cursor
+	private int posX = -1;
+	private int posY = -1;
+	private int savedX = 0;
+	private int savedY = 0;
+	
+	// Current graphic rendition (colour/attribute bits of CellBuffer)
+	private int attr = CellBuffer.DEFAULT_ATTR;
+	
+	// Parser
+	private int state = STATE_GROUND;
+	private final int[] params = new int[MAX_PARAMS];
+	private int paramCount = 0;
+	private boolean hasParam = false;
+	
+	public VT100Terminal(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.buffer = new CellBuffer(rows, cols);
+		this.rowTexts = new String[rows];
+		this.rowVersions = new long[rows];
+		reset();
+	}
+	
+	/**
+	 * Clear the screen and the parser state
+	 */
+	public void reset() {
+		attr = CellBuffer.DEFAULT_ATTR;
+		clearScreen();
+		posY = posX = -1;
+		savedY = savedX = 0;
+		state = STATE_GROUND;
+		paramCount = 0;
+		hasParam = false;
+	}
+	
+	/**
+	 * Render the characters on the screen
+	 * @param cb
+	 * @param off
+	 * @param len
+	 */
+	public void feed(char[] cb, int off, int len) {
+		
+		int end = off + len;
+		
+		for (int pos = off; pos < end; pos++) {
+			
+			char c = cb[pos];
+			
+			switch (state) {
+			case STATE_ESC:
+				if (c == '[') {
+					state = STATE_CSI;
+					paramCount = 0;
+					hasParam = false;
+					params[0] = 0;
+				} else if (c >= 0x20 && c <= 0x2F) {
+					// e.g. ESC ( B
+					state = STATE_ESC_INTERMEDIATE;
+				} else if (c == '7') {
+					saveCursor();
+					state = STATE_GROUND;
+				} else if (c == '8') {
+					restoreCursor();
+					state = STATE_GROUND;
+				} else {
+					state = STATE_GROUND;
+				}
+				continue;
+			case STATE_ESC_INTERMEDIATE:
+				if (c < 0x20 || c > 0x2F) {
+					state = STATE_GROUND;
+				}
+				continue;
+			case STATE_CSI:
+				if (c >= '0' && c <= '9') {
+					if (paramCount < MAX_PARAMS) {
+						params[paramCount] = params[paramCount] * 10 + (c - '0');
+					}
+					hasParam = true;
+				} else if (c == ';') {
+					if (paramCount < MAX_PARAMS) {
+						paramCount++;
+					}
+					if (paramCount < MAX_PARAMS) {
+						params[paramCount] = 0;
+					}
+					hasParam = true;
+				} else if (c >= 0x40 && c <= 0x7E) {
+					if (hasParam && paramCount < MAX_PARAMS) {
+						paramCount++;
+					}
+					state = STATE_GROUND;
+					processCSI(c);
+				} else if (c == 0x1B) {
+					// Broken sequence, start a new one
+					state = STATE_ESC;
+				}
+				// Ignore private markers (e.g. '?') and intermediate bytes
+				continue;
+			default:
+				break;
+			}
+			
+			switch (c) {
+			case 0x08:	// BS
+				if (--posX < 0) {
+					--posY;
+					posX = cols - 1;
+				}
+				continue;
+			case 0x0A:	// LF
+				posY++;
+				break;
+			case 0x0D:	// CR
+				posX = 0;
+				break;
+			case 0x1B:	// ESC
+				state = STATE_ESC;
+				break;
+			default:
+				
+				if (c < 0x20 || c == 0x7F) {
+					continue;
+				}
+				
+				if (posX >= 0 && posY >= 0 && posY < rows) {
+					
+					if (isHalfWidth(c)) {
+						buffer.set(posY, posX, attr | c);
+					} else {
+						buffer.set(posY, posX, attr | CellBuffer.WIDE | c);
+						if (posX < cols - 1) {
+							buffer.set(posY, ++posX, attr | CellBuffer.FILLER);
+						}
+					}
+					posX++;
+					if (posX >= cols) {
+						posX = cols - 1;
+					}
+					
+				}
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Build an immutable snapshot of the screen.
+	 * Only the rows changed since the previous snapshot are converted to text again.
+	 * @param version
+	 * @return
+	 */
+	public ScreenSnapshot snapshot(long version) {
+		int n = rows;
+		for (int i=0; i<n; i++) {
+			if (buffer.isDirty(i) || rowTexts[i] == null) {
+				rowTexts[i] = buffer.getRowText(i);
+				rowVersions[i] = version;
+				buffer.clearDirty(i);
+			}
+		}
+		return new ScreenSnapshot(version, n, cols, buffer.copyRows(n),
+				Arrays.copyOf(rowTexts, n), Arrays.copyOf(rowVersions, n), posX, posY);
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getCols() {
+		return cols;
+	}
+	
+	/**
+	 * Get the n-th CSI parameter
+	 * @param index
+	 * @param defaultValue Returned when the parameter is absent or 0
+	 * @return
+	 */
+	private int param(int index, int defaultValue) {
+		if (index >= paramCount || params[index] == 0) {
+			return defaultValue;
+		}
+		return params[index];
+	}
+	
+	private void processCSI(char type) {
+		
+		switch (type) {
+		case 'm':
+			processSGR();
+			break;
+		case 'H':
+		case 'f':
+			// Cursor to position (Cursor Home without parameters)
+			posY = clamp(param(0, 1) - 1, rows);
+			posX = clamp(param(1, 1) - 1, cols);
+			break;
+		case 'A':
+			posY = clamp(posY - param(0, 1), rows);
+			break;
+		case 'B':
+			posY = clamp(posY + param(0, 1), rows);
+			break;
+		case 'C':
+			posX = clamp(posX + param(0, 1), cols);
+			break;
+		case 'D':
+			posX = clamp(posX - param(0, 1), cols);
+			break;
+		case 'J':
+			switch (param(0, 0)) {
+			case 2:
+				// Erases the screen with the background colour and moves the cursor to home.
+				clearScreen();
+				posY = posX = 0;
+				break;
+			case 1:
+				// Erases the screen from the current line up to the top of the screen.
+				buffer.clearRows(0, Math.min(posY + 1, rows), blank());
+				break;
+			case 0:
+				// Erases the screen from the current line down to the bottom of the screen.
+				if (posY < rows) {
+					buffer.clearRows(Math.max(posY, 0), rows, blank());
+				}
+				break;
+			default:
+			}
+			break;
+		case 'K':
+			if (posY < 0 || posY >= rows) {
+				break;
+			}
+			switch (param(0, 0)) {
+			case 0:
+				// Erases from the current cursor position to the end of the current line.
+				buffer.clearRow(posY, Math.max(posX, 0), cols, blank());
+				break;
+			case 1:
+				// Erases from the current cursor position to the start of the current line.
+				buffer.clearRow(posY, 0, Math.max(posX, 0), blank());
+				break;
+			case 2:
+				// Erases the entire current line.
+				buffer.clearRow(posY, 0, cols, blank());
+				break;
+			default:
+			}
+			break;
+		case 's':
+			saveCursor();
+			break;
+		case 'u':
+			restoreCursor();
+			break;
+		default:
+			log.debug("Un implement type: " + type);
+		}
+		
+	}
+	
+	/**
+	 * Select graphic rendition (colours and attributes)
+	 */
+	private void processSGR() {
+		if (paramCount == 0) {
+			attr = CellBuffer.DEFAULT_ATTR;
+			return;
+		}
+		for (int i=0; i<paramCount; i++) {
+			int code = params[i];
+			if (code == 0) {
+				attr = CellBuffer.DEFAULT_ATTR;
+			} else if (code == 1) {
+				attr |= CellBuffer.BOLD;
+			} else if (code == 5) {
+				attr |= CellBuffer.BLINK;
+			} else if (code == 22) {
+				attr &= ~CellBuffer.BOLD;
+			} else if (code == 25) {
+				attr &= ~CellBuffer.BLINK;
+			} else if (code >= 30 && code <= 37) {
+				attr = (attr & ~(CellBuffer.COLOR_MASK << CellBuffer.FG_SHIFT)) | ((code - 30) << CellBuffer.FG_SHIFT);
+			} else if (code == 39) {
+				attr = (attr & ~(CellBuffer.COLOR_MASK << CellBuffer.FG_SHIFT)) | (7 << CellBuffer.FG_SHIFT);
+			} else if (code >= 40 && code <= 47) {
+				attr = (attr & ~(CellBuffer.COLOR_MASK << CellBuffer.BG_SHIFT)) | ((code - 40) << CellBuffer.BG_SHIFT);
+			} else if (code == 49) {
+				attr = attr & ~(CellBuffer.COLOR_MASK << CellBuffer.BG_SHIFT);
+			}
+		}
+	}
+	
+	/**
+	 * The erased cell keeps the current background colour
+	 * @return
+	 */
+	private int blank() {
+		return CellBuffer.DEFAULT_ATTR | (attr & (CellBuffer.COLOR_MASK << CellBuffer.BG_SHIFT)) | ' ';
+	}
+	
+	private void saveCursor() {
+		savedX = posX;
+		savedY = posY;
+	}
+	
+	private void restoreCursor() {
+		posX = savedX;
+		posY = savedY;
+	}
+	
+	private static int clamp(int value, int size) {
+		return value < 0 ? 0 : (value >= size ? size - 1 : value);
+	}
+	
+	private static boolean isHalfWidth(char c) {
+	    return '\u0000' <= c && c <= '\u00FF'
+	        || '\uFF61' <= c && c <= '\uFFDC'
+	        || '\uFFE8' <= c && c <= '\uFFEE';
+	}
+	
+	private void clearScreen() {
+		buffer.clearRows(0, rows, blank());
+	}
+	
+}
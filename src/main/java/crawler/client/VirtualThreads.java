@@ -0,0 +1,107 @@
+package crawler.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Create the crawl workers and the screen renderers on virtual threads when the mode is enabled
+ * and the JVM supports them (Java 21+), or on platform threads otherwise.
+ * The virtual thread API is called by reflection, so the code still builds and runs on Java 8.
+ * <p>
+ * Pinning audit: the waits on the screen use a ReentrantLock and the remaining monitors never block inside.
+ * The stream readers of commons-net (telnet) and JSch (SSH) wait inside monitors, which pins a virtual thread
+ * before Java 24, so their renderers stay on platform threads there. The NIO telnet transport has no renderer thread.
+ */
+public class VirtualThreads {
+	
+	private static final Logger log = Logger.getLogger(VirtualThreads.class);
+	
+	private static final int JAVA_VERSION = getJavaVersion();
+	private static final int VIRTUAL_THREAD_VERSION = 21;
+	private static final int UNPINNED_MONITOR_VERSION = 24;	// JEP 491
+	
+	private static volatile boolean isEnabled = false;
+	
+	/**
+	 * Enable the virtual thread mode
+	 * @param enabled
+	 * @return Whether the virtual threads are used (false if the JVM does not support them)
+	 */
+	public static boolean setEnabled(boolean enabled) {
+		if (enabled && !isSupported()) {
+			log.warn("Virtual threads require Java " + VIRTUAL_THREAD_VERSION + " (running " + JAVA_VERSION + "), use platform threads.");
+			enabled = false;
+		}
+		isEnabled = enabled;
+		return enabled;
+	}
+	
+	public static boolean isEnabled() {
+		return isEnabled;
+	}
+	
+	public static boolean isSupported() {
+		return JAVA_VERSION >= VIRTUAL_THREAD_VERSION;
+	}
+	
+	/**
+	 * Create a thread (not started); a platform thread is a daemon
+	 * @param name
+	 * @param task
+	 * @param blocksInMonitor Whether the task blocks inside a monitor (it would pin a virtual thread before Java 24)
+	 * @return
+	 */
+	public static Thread newThread(String name, Runnable task, boolean blocksInMonitor) {
+		if (isEnabled && (!blocksInMonitor || JAVA_VERSION >= UNPINNED_MONITOR_VERSION)) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+				return (Thread) builderClass.getMethod("unstarted", Runnable.class).invoke(builder, task);
+			} catch (Exception e) {
+				log.warn("Fail to create a virtual thread: " + e);
+			}
+		}
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	/**
+	 * Create the executor of the crawl workers. With virtual threads every task has its own thread
+	 * and the concurrency is bounded by the sessions it leases.
+	 * @param platformThreads The number of threads without the virtual thread mode
+	 * @return
+	 */
+	public static ExecutorService newExecutor(int platformThreads) {
+		if (isEnabled) {
+			try {
+				Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) method.invoke(null);
+			} catch (Exception e) {
+				log.warn("Fail to create a virtual thread executor: " + e);
+			}
+		}
+		return Executors.newFixedThreadPool(platformThreads);
+	}
+	
+	/**
+	 * The feature version of the running Java (8 for 1.8)
+	 * @return
+	 */
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "1.8");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return 8;
+		}
+	}
+	
+}
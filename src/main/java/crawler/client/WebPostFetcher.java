@@ -0,0 +1,179 @@
+package crawler.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.jsoup.HttpStatusException;
+
+import crawler.base.Entry;
+import crawler.base.Post;
+
+/**
+ * Download the posts from the web version on a pool of HTTP workers, so that the terminal sessions only enumerate the entries.
+ * <p>
+ * At most {@code threads} posts are fetched at once, and {@link #submit(Entry)} blocks while all the workers are busy,
+ * so the enumeration does not run far ahead of the downloads.
+ * A post whose page is missing (or keeps failing) is handed to {@link Listener#onMissing(Entry)},
+ * to be downloaded by the terminal pager instead.
+ */
+public class WebPostFetcher {
+	
+	private static final Logger log = Logger.getLogger(WebPostFetcher.class);
+	
+	public static final int DEFAULT_TIMEOUT = 10 * 1000;
+	private static final int MAX_RETRY = 3;
+	private static final long RETRY_DELAY = 1000;	// Doubled after each failure
+	
+	/**
+	 * The callbacks of the fetched and the missing posts (called by the HTTP workers)
+	 */
+	public static interface Listener {
+		
+		/**
+		 * Save a fetched post
+		 * @param entry
+		 * @param post
+		 * @throws Exception The post is regarded as missing
+		 */
+		void onFetched(Entry entry, Post post) throws Exception;
+		
+		/**
+		 * A post which can not be downloaded from the web version
+		 * @param entry
+		 */
+		void onMissing(Entry entry);
+		
+	}
+	
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final Listener listener;
+	private int timeout = DEFAULT_TIMEOUT;
+	private final AtomicInteger fetchedCount = new AtomicInteger();
+	private final AtomicInteger missingCount = new AtomicInteger();
+	
+	/**
+	 * @param threads The number of the posts fetched at once
+	 * @param listener
+	 */
+	public WebPostFetcher(int threads, Listener listener) {
+		threads = Math.max(1, threads);
+		this.executor = VirtualThreads.newExecutor(threads);
+		this.slots = new Semaphore(threads);
+		this.listener = listener;
+	}
+	
+	public WebPostFetcher setTimeout(int timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+	
+	/**
+	 * Fetch the post of the entry in the background (an entry without URL is missing at once)
+	 * @param entry
+	 * @throws InterruptedException
+	 */
+	public void submit(final Entry entry) throws InterruptedException {
+		
+		if (entry.url == null) {
+			missing(entry, "no URL");
+			return;
+		}
+		
+		slots.acquire();
+		try {
+			executor.execute(() -> {
+				try {
+					fetch(entry);
+				} catch (RuntimeException | Error e) {
+					missing(entry, e.toString());	// Never drop an entry, or the crawl would look complete
+				} finally {
+					slots.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			slots.release();
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Stop accepting the entries and wait for the submitted ones
+	 * @param timeout
+	 * @param unit
+	 * @return false if the timeout elapsed first
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		executor.shutdown();
+		return executor.awaitTermination(timeout, unit);
+	}
+	
+	/**
+	 * The number of the posts saved from the web version
+	 * @return
+	 */
+	public int getFetchedCount() {
+		return fetchedCount.get();
+	}
+	
+	/**
+	 * The number of the posts handed to the terminal
+	 * @return
+	 */
+	public int getMissingCount() {
+		return missingCount.get();
+	}
+	
+	/**
+	 * Download the post with a few retries: a page not found is missing at once, other failures are retried
+	 * @param entry
+	 */
+	private void fetch(Entry entry) {
+		
+		Post post = null;
+		for (int retry=0; post == null; retry++) {
+			try {
+				post = PTTClient.downloadPostByURL(entry.url, timeout);
+			} catch (HttpStatusException e) {
+				if (e.getStatusCode() == 404 || retry >= MAX_RETRY) {
+					missing(entry, "HTTP " + e.getStatusCode());
+					return;
+				}
+			} catch (Exception e) {
+				if (retry >= MAX_RETRY) {
+					missing(entry, e.toString());
+					return;
+				}
+			}
+			if (post == null) {
+				try {
+					Thread.sleep(RETRY_DELAY << retry);
+				} catch (InterruptedException e) {
+					missing(entry, "interrupted");
+					return;
+				}
+			}
+		}
+		
+		try {
+			listener.onFetched(entry, post);
+			fetchedCount.incrementAndGet();
+		} catch (Exception e) {
+			missing(entry, "fail to save (" + e.getMessage() + ")");
+		}
+		
+	}
+	
+	private void missing(Entry entry, String reason) {
+		log.info("#" + entry.getAID() + " is not downloaded from the web: " + reason);
+		missingCount.incrementAndGet();
+		listener.onMissing(entry);
+	}
+	
+}
@@ -0,0 +1,292 @@
+package crawler.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import crawler.client.CrawlJournal;
+import crawler.client.RangeScheduler;
+
+/**
+ * Share one budget of sessions among several boards in proportion to their activity.
+ * <p>
+ * A worker takes the board with the highest activity per worker already on it (the D'Hondt method),
+ * and stays on that board until the board has no work left to hand out, so each {@code toBoard} is amortized
+ * over a whole range of posts. Then it moves to the next board which needs a worker most.
+ * While no board has work but some workers are still crawling, the idle workers wait, because a failed worker gives its range back.
+ */
+public class BoardOrchestrator {
+	
+	private static final Logger log = Logger.getLogger(BoardOrchestrator.class);
+	
+	/**
+	 * The crawl of one board
+	 */
+	public static class BoardJob {
+		
+		private final String boardName;
+		private final double activity;
+		private final long newestAID;
+		private final RangeScheduler scheduler;	// null for an incremental crawl
+		private final CrawlJournal journal;
+		private final AtomicInteger failures = new AtomicInteger();	// The failed ranges of all the workers
+		private boolean isTaken = false;		// An incremental crawl is one walk
+		private boolean isFailed = false;		// Given up after too many failures, the rest is left to the journal of the next run
+		private int workers = 0;
+		
+		/**
+		 * A full crawl of the board by ranges
+		 * @param boardName
+		 * @param activity
+		 * @param newestAID
+		 * @param scheduler
+		 * @param journal
+		 */
+		public BoardJob(String boardName, double activity, long newestAID, RangeScheduler scheduler, CrawlJournal journal) {
+			this.boardName = boardName;
+			this.activity = activity;
+			this.newestAID = newestAID;
+			this.scheduler = scheduler;
+			this.journal = journal;
+		}
+		
+		/**
+		 * An incremental crawl of the board, walked by one session
+		 * @param boardName
+		 * @param activity
+		 */
+		public BoardJob(String boardName, double activity) {
+			this(boardName, activity, 0, null, null);
+		}
+		
+		public String getBoardName() {
+			return boardName;
+		}
+		
+		public double getActivity() {
+			return activity;
+		}
+		
+		public long getNewestAID() {
+			return newestAID;
+		}
+		
+		public RangeScheduler getScheduler() {
+			return scheduler;
+		}
+		
+		public CrawlJournal getJournal() {
+			return journal;
+		}
+		
+		public boolean isIncremental() {
+			return scheduler == null;
+		}
+		
+		/**
+		 * The counter of the failed ranges, shared by all the workers on the board
+		 * @return
+		 */
+		public AtomicInteger getFailures() {
+			return failures;
+		}
+		
+		/**
+		 * Whether the board has been given up after too many failures
+		 * @return
+		 */
+		public boolean isFailed() {
+			return isFailed;
+		}
+		
+		/**
+		 * Whether the board still needs another worker
+		 * @return
+		 */
+		private boolean hasWork() {
+			return !isFailed && (isIncremental() ? !isTaken : scheduler.hasWork());
+		}
+		
+		/**
+		 * Whether all the entries of the board have been handed out and finished
+		 * @return
+		 */
+		public boolean isComplete() {
+			return isIncremental() ? isTaken : scheduler.getRemaining() == 0;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s (activity %.0f, %d workers)", boardName, activity, workers);
+		}
+		
+	}
+	
+	/**
+	 * The callback of a board whose workers have all left
+	 */
+	public static interface Listener {
+		void onFinished(BoardJob job);
+	}
+	
+	private final List<BoardJob> jobs = new ArrayList<BoardJob>();
+	private final ReentrantLock lock = new ReentrantLock();	// Guards the jobs and their workers
+	private final Condition changed = lock.newCondition();	// A worker has left a board
+	private Listener listener = null;
+	private int maxFailures = Integer.MAX_VALUE;
+	
+	/**
+	 * Call the listener when the last worker leaves a board which has no work left
+	 * @param listener
+	 * @return
+	 */
+	public BoardOrchestrator setListener(Listener listener) {
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Give up a board after more failed ranges than this (unlimited by default)
+	 * @param maxFailures
+	 * @return
+	 */
+	public BoardOrchestrator setMaxFailures(int maxFailures) {
+		this.maxFailures = maxFailures;
+		return this;
+	}
+	
+	public void add(BoardJob job) {
+		lock.lock();
+		try {
+			jobs.add(job);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Split the sessions among the boards by their activity (D'Hondt), at least one for each board
+	 * @param sessions
+	 * @param activities
+	 * @return The number of sessions of each board
+	 */
+	public static int[] apportion(int sessions, double[] activities) {
+		int[] quotas = new int[activities.length];
+		for (int s=0; s<sessions; s++) {
+			int best = -1;
+			for (int i=0; i<activities.length; i++) {
+				if (best < 0 || activities[i] / (quotas[i] + 1) > activities[best] / (quotas[best] + 1)) {
+					best = i;
+				}
+			}
+			if (best >= 0) {
+				quotas[best]++;
+			}
+		}
+		for (int i=0; i<quotas.length; i++) {
+			quotas[i] = Math.max(1, quotas[i]);
+		}
+		return quotas;
+	}
+	
+	/**
+	 * Leave the previous board and take the board which needs a worker most
+	 * @param previous The board the worker has finished (null for a new worker)
+	 * @return null if no board has work left and no worker is left to give a range back (or the thread is interrupted)
+	 */
+	public BoardJob take(BoardJob previous) {
+		
+		BoardJob finished = null;
+		BoardJob best = null;
+		
+		lock.lock();
+		try {
+			
+			if (previous != null) {
+				if (!previous.isFailed && previous.failures.get() > maxFailures) {
+					previous.isFailed = true;
+					log.warn("Give up " + previous.boardName + " after " + previous.failures.get() + " failures");
+				}
+				if (--previous.workers == 0 && !previous.hasWork()) {
+					finished = previous;
+				}
+				changed.signalAll();
+			}
+			
+			while ((best = pick()) == null && hasWorkers()) {
+				try {
+					changed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (best != null) {
+				best.workers++;
+				best.isTaken = true;
+				log.info("Take " + best);
+			}
+			
+		} finally {
+			lock.unlock();
+		}
+		
+		if (finished != null && listener != null) {
+			listener.onFinished(finished);
+		}
+		return best;
+	}
+	
+	/**
+	 * The board with the highest activity per worker among those with work (guarded by the lock)
+	 * @return null if none
+	 */
+	private BoardJob pick() {
+		BoardJob best = null;
+		for (BoardJob job : jobs) {
+			if (job.hasWork() && (best == null || job.activity / (job.workers + 1) > best.activity / (best.workers + 1))) {
+				best = job;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Whether any worker is still on a board (guarded by the lock)
+	 * @return
+	 */
+	private boolean hasWorkers() {
+		for (BoardJob job : jobs) {
+			if (job.workers > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Close the journals of all the boards
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			for (BoardJob job : jobs) {
+				if (job.journal != null) {
+					try {
+						job.journal.close();
+					} catch (IOException e) {
+						log.warn("Fail to close the journal of " + job.boardName + ": " + e.getMessage());
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+}
@@ -4,27 +4,62 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
+import crawler.base.AIDCodec;
 import crawler.base.Entry;
+import crawler.base.Post;
+import crawler.base.Reply;
+import crawler.client.Account;
+import crawler.client.CrawlJournal;
+import crawler.client.HighWaterMark;
+import crawler.client.KeystrokeRateLimiter;
 import crawler.client.PTTClient;
 import crawler.client.PTTClient.Protocol;
+import crawler.client.PostCheckpoint;
+import crawler.client.RangeScheduler;
+import crawler.client.SessionPool;
+import crawler.client.VirtualThreads;
+import crawler.client.WebPostFetcher;
 
 public class Main {
 	
 	private static final Logger log = Logger.getLogger(Main.class);
-	private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+	private static final int MAX_RESUME = 3;
+	private static final long LEASE_TIMEOUT = 5 * 60 * 1000;
+	private static final double DEFAULT_KEY_RATE = 50;	// Keystrokes per second of all the sessions
+	private static final int RATE_SAMPLE = 100;			// The entries spanned to estimate the post rate of a board
+	private static final int HOT_BOARDS_TIMEOUT = 10 * 1000;
 	
 	public static String username = null;
 	public static String password = null;
 	public static String boardname = null;
+	public static List<String> boardnames = new ArrayList<String>();
+	public static int hotBoardCount = 0;
+	public static int webThreads = 0;		// The HTTP workers of the hybrid crawl (0 to download by the terminal only)
 	public static boolean isMultiThread = false;
+	public static boolean isVirtualThread = false;
+	public static boolean isIncremental = false;
+	public static int screenRows = PTTClient.DEFAULT_ROWS;
+	public static List<Account> accounts = null;
+	public static double keyRate = DEFAULT_KEY_RATE;
+	public static String host = PTTClient.DEFAULT_HOST;
+	public static int port = -1;
+	public static Protocol protocol = null;	// Telnet for one session and SSH for multi-thread by default
 	
 	static {
 		PropertyConfigurator.configure("log4j.properties");
@@ -37,23 +72,57 @@ public class Main {
 	private static void parseArgs(String[] args) {
 		
 		isMultiThread = false;
+		isVirtualThread = false;
+		isIncremental = false;
 		
 		for (int i=0; i<args.length; i++) {
 			
 			switch (args[i].charAt(0)) {
 			case '-':
-				if (i+1 < args.length) {
+				if (args[i].equals("-m")) {
+					isMultiThread = true;
+				} else if (args[i].equals("-v")) {
+					isVirtualThread = true;
+				} else if (args[i].equals("-i")) {
+					isIncremental = true;
+				} else if (i+1 < args.length) {
 					if (args[i].equals("-u") || args[i].equals("-username")) {
 						username = args[++i];
 					} else if (args[i].equals("-p") || args[i].equals("-password")) {
 						password = args[++i];
 					} else if (args[i].equals("-b") || args[i].equals("-board")) {
-						boardname = args[++i];
+						for (String name : args[++i].split(",")) {
+							if (!name.trim().isEmpty() && !boardnames.contains(name.trim())) {
+								boardnames.add(name.trim());
+							}
+						}
+					} else if (args[i].equals("-hot")) {
+						hotBoardCount = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("-w") || args[i].equals("-web")) {
+						webThreads = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("-r") || args[i].equals("-rows")) {
+						screenRows = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("-a") || args[i].equals("-accounts")) {
+						try {
+							accounts = Account.load(args[++i]);
+						} catch (IOException e) {
+							throw new IllegalArgumentException("Fail to load the accounts: " + e.getMessage());
+						}
+					} else if (args[i].equals("-k") || args[i].equals("-keyrate")) {
+						keyRate = Double.parseDouble(args[++i]);
+					} else if (args[i].equals("-host")) {
+						String[] hostPort = args[++i].split(":", 2);
+						host = hostPort[0];
+						port = hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : -1;
+					} else if (args[i].equals("-protocol")) {
+						try {
+							protocol = Protocol.valueOf(args[++i]);
+						} catch (IllegalArgumentException e) {
+							throw new IllegalArgumentException("Not a valid protocol: " + args[i] + " (Telnet, SSH or TelnetNIO)");
+						}
 					} else {
 						throw new IllegalArgumentException("Not a valid argument: " + args[i]);
 					}
-				} else if (args[i].equals("-m")) {
-					isMultiThread = true;
 				} else {
 					throw new IllegalArgumentException("No config value after " + args[i]);
 				}
@@ -64,15 +133,31 @@ public class Main {
 			
 		}
 		
-		if (username == null) {
-			throw new IllegalArgumentException("Require username. Please use -u [username] in arguments.");
-		}
-		if (password == null) {
-			throw new IllegalArgumentException("Require password. Please use -p [password] in arguments.");
+		if (accounts == null) {
+			if (username == null) {
+				throw new IllegalArgumentException("Require username. Please use -u [username] in arguments.");
+			}
+			if (password == null) {
+				throw new IllegalArgumentException("Require password. Please use -p [password] in arguments.");
+			}
+			accounts = new ArrayList<Account>();
+			accounts.add(new Account(username, password, Account.DEFAULT_MAX_SESSIONS));
+		} else if (accounts.isEmpty()) {
+			throw new IllegalArgumentException("The accounts file has no account.");
+		} else if (username == null) {
+			username = accounts.get(0).getUsername();
+			password = accounts.get(0).getPassword();
 		}
-		if (boardname == null) {
+		if (boardnames.isEmpty() && hotBoardCount <= 0) {
 			throw new IllegalArgumentException("Require boardname. Please use -b [boardname] in arguments.");
 		}
+		if (webThreads > 0 && (boardnames.size() > 1 || hotBoardCount > 0)) {
+			throw new IllegalArgumentException("-w crawls one board, it can not be used with several boards or -hot.");
+		}
+		if (webThreads > 0 && isIncremental) {
+			throw new IllegalArgumentException("-w can not be used with -i.");
+		}
+		boardname = boardnames.isEmpty() ? null : boardnames.get(0);
 		
 	}
 	
@@ -82,30 +167,44 @@ public class Main {
 	 */
 	public static void crawlAllPosts() {
 		
-		final String savePath = "Results/" + boardname + "_" + sdf.format(new Date());
-		new File(savePath).mkdirs();
-		PTTClient ptt = new PTTClient();
+		final String savePath = getSavePath(boardname);
+		PTTClient ptt = new PTTClient(screenRows).setServer(host, port).setRateLimiter(createRateLimiter());
+		CrawlJournal journal = null;
 		
 		try {
 			
-			ptt.connect(Protocol.Telnet);
+			journal = CrawlJournal.open(new File(savePath));
+			ptt.connect(protocol != null ? protocol : Protocol.Telnet);
 			ptt.login(username, password, false);
 			ptt.toBoard(boardname);
-			Entry entry = ptt.toLatestPost(boardname);
+			Entry entry = resumeJournal(ptt, boardname, journal);
+			long newestAID = entry.aid;
 			
 			for (;;) {
-				if (!entry.author.equals("-")) {
-					String postContent = ptt.downloadCurrentPost();
+				if (journal.isDone(entry.number)) {
+					// Jump over the entries finished by an earlier run
+					int number = entry.number - 1;
+					while (number >= 1 && journal.isDone(number)) {
+						number--;
+					}
+					if (number < 1) {
+						break;
+					}
+					entry = number == entry.number - 1 ? ptt.moveUpEntry(boardname) : ptt.toEntryByNum(boardname, number);
+					continue;
+				}
+				if (!entry.isDeleted()) {
 					log.info(entry.toString());
-					PrintWriter pw = new PrintWriter(savePath + "/#" + entry.id + ".txt");
-					pw.print(postContent);
-					pw.close();
+					downloadPost(ptt, boardname, entry, savePath);
 				}
-				if (entry.number.equals("1")) {
+				journal.markDone(entry.number, entry.aid);
+				if (!entry.sticky && entry.number == 1) {
 					break;
 				}
 				entry = ptt.moveUpEntry(boardname);
 			}
+			journal.clear();
+			updateHighWaterMark(savePath, newestAID);
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -113,6 +212,9 @@ public class Main {
 			try {
 				ptt.logout();
 				ptt.close();
+				if (journal != null) {
+					journal.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -121,106 +223,744 @@ public class Main {
 	}
 	
 	/**
-	 * 抓取看板內之所有文章(多執行序版本)
+	 * 抓取上次完整執行後的新文章
 	 */
-	public static void crawlAllPostsMultiThread() {
+	public static void crawlNewPosts() {
 		
-		// Step1. Get the latest entry number
-		PTTClient ptt = new PTTClient();
-		int latestEntryNumber = 1;
+		PTTClient ptt = new PTTClient(screenRows).setServer(host, port).setRateLimiter(createRateLimiter());
 		
 		try {
-			ptt.connect(Protocol.SSH);
+			ptt.connect(protocol != null ? protocol : Protocol.Telnet);
 			ptt.login(username, password, false);
 			ptt.toBoard(boardname);
-			Entry entry = ptt.toLatestPost(boardname);
-			latestEntryNumber = Integer.parseInt(entry.number);
-			log.info("共" + latestEntryNumber + "則貼文");
+			crawlNewPosts(ptt, boardname);
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
 			try {
+				ptt.logout();
 				ptt.close();
-				Thread.sleep(10 * 1000);
-			} catch (IOException | InterruptedException e) {
+			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 		
-		// Step2. Multi-thread crawl
-		final int ThreadPoolSize = 3;
-		ExecutorService executor = Executors.newFixedThreadPool(ThreadPoolSize);
+	}
+	
+	/**
+	 * 抓取上次完整執行後的新文章 with a session of the pool
+	 * @param pool
+	 * @param boardName
+	 */
+	public static void crawlNewPosts(SessionPool pool, String boardName) {
+		PTTClient ptt = null;
+		try {
+			ptt = pool.lease(boardName, LEASE_TIMEOUT);
+			crawlNewPosts(ptt, boardName);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (ptt != null) {
+				pool.release(ptt);
+			}
+		}
+	}
+	
+	/**
+	 * Walk up from the latest post until the high-water mark of the last complete run, and move the mark.
+	 * The mark is anchored on the AID, so the entry numbers shifted by purged posts do not matter.
+	 * @param ptt A client on the board
+	 * @param boardName
+	 * @return The number of the new posts
+	 * @throws Exception
+	 */
+	public static int crawlNewPosts(PTTClient ptt, String boardName) throws Exception {
+		
+		final String savePath = getSavePath(boardName);
+		HighWaterMark mark = HighWaterMark.load(new File(savePath));
+		if (!mark.isSet()) {
+			log.info("No high-water mark of " + boardName + ", crawl the whole board");
+		}
+		
+		Entry entry = ptt.toLatestPost(boardName);
+		long newestAID = entry.aid;
+		int count = 0;
 		
-		int partSize = latestEntryNumber / 10;
-		for (int i=0; i<11; i++) {
-			int from = i * partSize + 1;
-			int to = from + partSize - 1;
-			if (from <= latestEntryNumber && to <= latestEntryNumber) {
-				executor.execute(() -> crawlPostsByRange(from, to));
+		while (!mark.isReached(entry)) {
+			if (!entry.isDeleted()) {
+				log.info(entry.toString());
+				downloadPost(ptt, boardName, entry, savePath);
+				count++;
 			}
+			if (!entry.sticky && entry.number == 1) {
+				break;
+			}
+			entry = ptt.moveUpEntry(boardName);
+		}
+		
+		log.info(count + " new posts in " + boardName);
+		updateHighWaterMark(savePath, newestAID);
+		return count;
+	}
+	
+	/**
+	 * 抓取看板內之所有文章(多執行序版本)
+	 */
+	public static void crawlAllPostsMultiThread() {
+		
+		// The sessions stay logged in on the board between the ranges, spread over the accounts
+		final SessionPool pool = createSessionPool();
+		final int ThreadPoolSize = pool.getSize();
+		
+		final CrawlJournal journal;
+		try {
+			journal = CrawlJournal.open(new File(getSavePath(boardname)));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		// Step1. Get the latest entry number, and check the journal of an interrupted run
+		int latestEntryNumber = 1;
+		long newestAID = 0;
+		
+		try {
+			pool.start();
+			PTTClient ptt = pool.lease(boardname, LEASE_TIMEOUT);
+			try {
+				Entry entry = resumeJournal(ptt, boardname, journal);
+				latestEntryNumber = entry.number;
+				newestAID = entry.aid;
+				log.info("共" + latestEntryNumber + "則貼文");
+			} finally {
+				pool.release(ptt);
+			}
+		} catch (Exception e) {
+			// Without the latest number the ranges would cover only the first entry and look complete
+			e.printStackTrace();
+			pool.close();
+			try {
+				journal.close();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+			return;
+		}
+		
+		// Step2. Multi-thread crawl (the idle workers steal the tails of the busy ranges)
+		final RangeScheduler scheduler = new RangeScheduler(1, latestEntryNumber, ThreadPoolSize);
+		ExecutorService executor = VirtualThreads.newExecutor(ThreadPoolSize);
+		for (int i=0; i<ThreadPoolSize; i++) {
+			executor.execute(() -> crawlPostsByRange(pool, boardname, scheduler, journal));
 		}
 		
 		try {
 			executor.shutdown();
 			executor.awaitTermination(1, TimeUnit.DAYS);
-		} catch (InterruptedException e) {
+			log.info("Crawled with " + scheduler.getSteals() + " stolen ranges, " + scheduler.getRemaining() + " entries left");
+			if (scheduler.getRemaining() == 0) {
+				journal.clear();
+				updateHighWaterMark(getSavePath(boardname), newestAID);
+			}
+		} catch (InterruptedException | IOException e) {
 			e.printStackTrace();
+		} finally {
+			pool.close();
+			try {
+				journal.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 		
 	}
 	
 	/**
-	 * 抓取看板內指定範圍的文章
-	 * @param fromNum
-	 * @param toNum
-	 * @throws Exception
+	 * 抓取看板內之所有文章(混合版本): the sessions only enumerate the entries and resolve their URLs,
+	 * and the HTTP workers download the posts from the web version.
+	 * The posts missing on the web are downloaded by the pager after the enumeration.
 	 */
-	public static void crawlPostsByRange(int fromNum, int toNum) {
+	public static void crawlAllPostsHybrid() {
 		
-		final String savePath = "Results/" + boardname + "_" + sdf.format(new Date());
-		new File(savePath).mkdirs();
-		PTTClient ptt = new PTTClient();
+		final String savePath = getSavePath(boardname);
+		final SessionPool pool = createSessionPool();
+		final int sessions = pool.getSize();
+		final Queue<Entry> missing = new ConcurrentLinkedQueue<Entry>();
+		CrawlJournal journal = null;
+		ExecutorService executor = null;
 		
 		try {
+			
+			// Step1. Get the latest entry, and check the journal of an interrupted run
+			final CrawlJournal crawlJournal = journal = CrawlJournal.open(new File(savePath));
+			pool.start();
+			Entry latest;
+			PTTClient ptt = pool.lease(boardname, LEASE_TIMEOUT);
+			try {
+				latest = resumeJournal(ptt, boardname, crawlJournal);
+				log.info("共" + latest.number + "則貼文");
+			} finally {
+				pool.release(ptt);
+			}
+			
+			// Step2. Enumerate the entries by ranges, and fetch the posts on the web meanwhile
+			final WebPostFetcher fetcher = new WebPostFetcher(webThreads, new WebPostFetcher.Listener() {
+				@Override
+				public void onFetched(Entry entry, Post post) throws Exception {
+					log.info(entry.toString());
+					savePost(post, savePath + "/#" + entry.getAID() + ".txt");
+					crawlJournal.markDone(entry.number, entry.aid);
+				}
+				@Override
+				public void onMissing(Entry entry) {
+					missing.add(entry);
+				}
+			});
+			final RangeScheduler scheduler = new RangeScheduler(1, latest.number, sessions);
+			executor = VirtualThreads.newExecutor(sessions);
+			for (int i=0; i<sessions; i++) {
+				executor.execute(() -> crawlPostsByRange(pool, boardname, scheduler, crawlJournal, fetcher));
+			}
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.DAYS);
+			fetcher.shutdown(1, TimeUnit.DAYS);
+			log.info(fetcher.getFetchedCount() + " posts from the web, " + fetcher.getMissingCount() + " missing");
+			
+			// Step3. Download the missing posts by the pager
+			final AtomicInteger failures = new AtomicInteger();
+			executor = VirtualThreads.newExecutor(sessions);
+			for (int i=0; i<Math.min(sessions, missing.size()); i++) {
+				executor.execute(() -> downloadMissingPosts(pool, boardname, missing, crawlJournal, failures));
+			}
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.DAYS);
+			
+			log.info("Crawled with " + scheduler.getSteals() + " stolen ranges, " + scheduler.getRemaining() + " entries left, " + failures.get() + " failures");
+			if (scheduler.getRemaining() == 0 && missing.isEmpty() && failures.get() == 0) {
+				crawlJournal.clear();
+				updateHighWaterMark(savePath, latest.aid);
+			}
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			pool.close();
+			try {
+				if (journal != null) {
+					journal.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		
-			ptt.connect(Protocol.SSH);
-			ptt.login(username, password, true);
-			ptt.toBoard(boardname);
-			Entry entry = ptt.toEntryByNum(boardname, fromNum);
+	}
+	
+	/**
+	 * 抓取多個看板: the sessions of all the accounts are shared among the boards by their activity
+	 * @param boardNames
+	 */
+	public static void crawlBoards(List<String> boardNames) {
 		
-			for (;;) {
-				if (!entry.author.equals("-")) {
-					String postContent = ptt.downloadCurrentPost();
-					log.info(entry.toString());
-					PrintWriter pw = new PrintWriter(savePath + "/#" + entry.id + ".txt");
-					pw.print(postContent);
-					pw.close();
+		final SessionPool pool = createSessionPool();
+		final int sessions = pool.getSize();
+		final BoardOrchestrator orchestrator = new BoardOrchestrator().setMaxFailures(MAX_RESUME).setListener(job -> {
+			log.info("Finished " + job.getBoardName());
+			if (!job.isIncremental() && job.isComplete()) {
+				try {
+					job.getJournal().clear();
+				} catch (IOException e) {
+					log.warn("Fail to clear the journal of " + job.getBoardName() + ": " + e.getMessage());
 				}
-				if (entry.number.equals(Integer.toString(toNum)) || entry.number.equals("★")) {
-					break;
+				updateHighWaterMark(getSavePath(job.getBoardName()), job.getNewestAID());
+			}
+		});
+		ExecutorService executor = VirtualThreads.newExecutor(sessions);
+		
+		try {
+			
+			// Step1. Probe the activity of the boards in parallel
+			pool.start();
+			List<Future<BoardProbe>> futures = new ArrayList<Future<BoardProbe>>();
+			for (final String boardName : boardNames) {
+				futures.add(executor.submit(() -> probeBoard(pool, boardName)));
+			}
+			List<BoardProbe> probes = new ArrayList<BoardProbe>();
+			for (int i=0; i<futures.size(); i++) {
+				try {
+					probes.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					log.warn("Skip " + boardNames.get(i) + ": " + e.getCause().getMessage());
 				}
-				entry = ptt.moveDownEntry(boardname);
 			}
 			
+			// Step2. Split the sessions by the activity
+			double[] activities = new double[probes.size()];
+			for (int i=0; i<activities.length; i++) {
+				activities[i] = probes.get(i).getActivity();
+			}
+			int[] quotas = BoardOrchestrator.apportion(sessions, activities);
+			for (int i=0; i<probes.size(); i++) {
+				BoardProbe probe = probes.get(i);
+				log.info(String.format("%s: 人氣 %d, %.1f posts/day, %d entries, %d sessions",
+						probe.boardName, probe.popularity, probe.postsPerDay, probe.latestNumber, quotas[i]));
+				if (isIncremental) {
+					orchestrator.add(new BoardOrchestrator.BoardJob(probe.boardName, activities[i]));
+				} else {
+					orchestrator.add(new BoardOrchestrator.BoardJob(probe.boardName, activities[i], probe.newestAID,
+							new RangeScheduler(1, probe.latestNumber, quotas[i]), probe.journal));
+				}
+			}
+			
+			// Step3. Each worker stays on a board until it has no work left, then moves to the board which needs it most
+			for (int i=0; i<sessions; i++) {
+				executor.execute(() -> {
+					BoardOrchestrator.BoardJob job = null;
+					while ((job = orchestrator.take(job)) != null) {
+						if (job.isIncremental()) {
+							crawlNewPosts(pool, job.getBoardName());
+						} else {
+							// The orchestrator keeps the idle workers for the ranges given back, and gives up the board after MAX_RESUME failures
+							crawlPostsByRange(pool, job.getBoardName(), job.getScheduler(), job.getJournal(), null, false, job.getFailures());
+						}
+					}
+				});
+			}
+			
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.DAYS);
+			
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			executor.shutdownNow();
+			orchestrator.close();
+			pool.close();
+		}
+		
+	}
+	
+	/**
+	 * The activity of a board measured before the crawl
+	 */
+	private static class BoardProbe {
+		
+		String boardName;
+		int popularity = 0;			// 人氣 (the users on the board)
+		double postsPerDay = 0;
+		int latestNumber = 0;
+		long newestAID = 0;
+		CrawlJournal journal = null;	// null for an incremental crawl
+		
+		/**
+		 * Both the users on the board and its posts per day count the attention of a board
+		 * @return
+		 */
+		double getActivity() {
+			return Math.max(1, popularity + postsPerDay);
+		}
+		
+	}
+	
+	/**
+	 * Read the popularity, the latest entry and the post rate of a board, and open its journal for a full crawl
+	 * @param pool
+	 * @param boardName
+	 * @return
+	 * @throws Exception
+	 */
+	private static BoardProbe probeBoard(SessionPool pool, String boardName) throws Exception {
+		
+		PTTClient ptt = pool.lease(boardName, LEASE_TIMEOUT);
+		CrawlJournal journal = null;
+		
+		try {
+			
+			BoardProbe probe = new BoardProbe();
+			probe.boardName = boardName;
+			probe.popularity = Math.max(0, ptt.getBoardPopularity(boardName));
+			
+			Entry latest;
+			if (isIncremental) {
+				latest = ptt.toLatestPost(boardName);
+			} else {
+				journal = CrawlJournal.open(new File(getSavePath(boardName)));
+				latest = resumeJournal(ptt, boardName, journal);
+			}
+			probe.latestNumber = latest.number;
+			probe.newestAID = latest.aid;
+			
+			// The post rate from the times of the latest post and the one RATE_SAMPLE entries earlier
+			if (latest.number > RATE_SAMPLE && latest.aid != 0) {
+				Entry earlier = ptt.toEntryByNum(boardName, latest.number - RATE_SAMPLE);
+				long span = AIDCodec.getTimestamp(latest.aid) - AIDCodec.getTimestamp(earlier.aid);
+				if (earlier.aid != 0 && span > 0) {
+					probe.postsPerDay = RATE_SAMPLE * 86400.0 / span;
+				}
+			}
+			
+			probe.journal = journal;
+			return probe;
+			
+		} catch (Exception e) {
+			if (journal != null) {
+				journal.close();
+			}
+			throw e;
+		} finally {
+			pool.release(ptt);
+		}
+		
+	}
+	
+	/**
+	 * 抓取看板內指定範圍的文章, taking the ranges from the scheduler until no work is left
+	 * @param pool
+	 * @param boardName
+	 * @param scheduler
+	 * @param journal The entries finished by an earlier run are skipped
+	 */
+	public static void crawlPostsByRange(SessionPool pool, String boardName, RangeScheduler scheduler, CrawlJournal journal) {
+		crawlPostsByRange(pool, boardName, scheduler, journal, null, true, new AtomicInteger());
+	}
+	
+	/**
+	 * 抓取看板內指定範圍的文章, taking the ranges from the scheduler until no work is left
+	 * @param pool
+	 * @param boardName
+	 * @param scheduler
+	 * @param journal The entries finished by an earlier run are skipped
+	 * @param fetcher The posts are handed to the fetcher, which journals them when saved (null to download them by the pager)
+	 */
+	public static void crawlPostsByRange(SessionPool pool, String boardName, RangeScheduler scheduler, CrawlJournal journal, WebPostFetcher fetcher) {
+		crawlPostsByRange(pool, boardName, scheduler, journal, fetcher, true, new AtomicInteger());
+	}
+	
+	/**
+	 * 抓取看板內指定範圍的文章, taking the ranges from the scheduler until no work is left
+	 * @param pool
+	 * @param boardName
+	 * @param scheduler
+	 * @param journal The entries finished by an earlier run are skipped
+	 * @param fetcher The posts are handed to the fetcher, which journals them when saved (null to download them by the pager)
+	 * @param wait Whether to wait for the ranges given back by the failed workers (otherwise leave as soon as nothing can be taken)
+	 * @param failures The failed ranges, counted over all the workers sharing it (the worker leaves after more than MAX_RESUME)
+	 */
+	private static void crawlPostsByRange(SessionPool pool, String boardName, RangeScheduler scheduler, CrawlJournal journal,
+			WebPostFetcher fetcher, boolean wait, AtomicInteger failures) {
+		
+		final String savePath = getSavePath(boardName);
+		PTTClient ptt = null;
+		RangeScheduler.Range range;
+		
+		while ((range = wait ? scheduler.take() : scheduler.poll()) != null) {
+			
 			try {
-				ptt.logout();
-				ptt.close();
-				Thread.sleep(10 * 1000);
+				
+				if (ptt == null) {
+					ptt = pool.lease(boardName, LEASE_TIMEOUT);
+				}
+				
+				// List the range by pages, so the deleted and finished entries cost no keystroke of their own
+				Map<Integer, Entry> listed = new HashMap<Integer, Entry>();
+				int number;
+				while ((number = scheduler.next(range)) > 0) {
+					if (journal.isDone(number)) {
+						continue;
+					}
+					if (!listed.containsKey(number)) {
+						listEntries(listed, listed.containsKey(number - 1) ? ptt.pageDownEntries(boardName) : null);
+						if (!listed.containsKey(number)) {
+							listEntries(listed, ptt.toEntryPageByNum(boardName, number));
+						}
+						if (!listed.containsKey(number)) {
+							throw new Exception("Entry " + number + " is not listed");
+						}
+					}
+					Entry entry = listed.get(number);
+					if (entry.isDeleted()) {
+						journal.markDone(number, 0);
+						continue;
+					}
+					
+					// The AID is only shown by the info screen, which the jump opens in the same write
+					entry = ptt.toEntryByNum(boardName, number);
+					if (entry.sticky || entry.number != number) {
+						throw new Exception("The cursor is on " + entry.getNumberString() + " instead of " + number);
+					}
+					if (!entry.isDeleted() && fetcher != null) {
+						fetcher.submit(entry);
+						continue;
+					}
+					if (!entry.isDeleted()) {
+						log.info(entry.toString());
+						downloadPost(ptt, boardName, entry, savePath);
+					}
+					journal.markDone(number, entry.aid);
+				}
+				
+			} catch (Exception e) {
+				e.printStackTrace();
+				scheduler.abort(range, true);
+				if (ptt != null) {
+					pool.release(ptt);
+					ptt = null;
+				}
+				if (failures.incrementAndGet() > MAX_RESUME) {
+					break;
+				}
+			}
+			
+		}
+		
+		if (ptt != null) {
+			pool.release(ptt);
+		}
+		
+	}
+	
+	/**
+	 * Index the numbered entries of a page (the last page may overlap the previous one, and the sticky entries are not numbered)
+	 * @param listed
+	 * @param page null for none
+	 */
+	private static void listEntries(Map<Integer, Entry> listed, List<Entry> page) {
+		if (page == null) {
+			return;
+		}
+		for (Entry entry : page) {
+			if (!entry.sticky) {
+				listed.put(entry.number, entry);
+			}
+		}
+	}
+	
+	/**
+	 * Download the posts missing on the web by the pager, until the queue is empty
+	 * @param pool
+	 * @param boardName
+	 * @param missing
+	 * @param journal
+	 * @param failures The posts failed to download (they are left for the next run)
+	 */
+	private static void downloadMissingPosts(SessionPool pool, String boardName, Queue<Entry> missing, CrawlJournal journal, AtomicInteger failures) {
+		
+		final String savePath = getSavePath(boardName);
+		PTTClient ptt = null;
+		Entry entry;
+		
+		while ((entry = missing.poll()) != null) {
+			try {
+				if (ptt == null) {
+					ptt = pool.lease(boardName, LEASE_TIMEOUT);
+				}
+				log.info(entry.toString());
+				ptt.toEntryByID(boardName, entry);
+				downloadPost(ptt, boardName, entry, savePath);
+				journal.markDone(entry.number, entry.aid);
 			} catch (Exception e) {
 				e.printStackTrace();
+				failures.incrementAndGet();
+				if (ptt != null) {
+					pool.release(ptt);
+					ptt = null;
+				}
 			}
 		}
 		
+		if (ptt != null) {
+			pool.release(ptt);
+		}
+		
+	}
+	
+	/**
+	 * Save a post downloaded from the web version in the layout of the pager
+	 * @param post
+	 * @param path
+	 * @throws IOException
+	 */
+	private static void savePost(Post post, String path) throws IOException {
+		
+		SimpleDateFormat postSDF = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.ENGLISH);
+		SimpleDateFormat replySDF = new SimpleDateFormat("MM/dd HH:mm");
+		PrintWriter pw = new PrintWriter(path);
+		
+		try {
+			pw.println(" 作者  " + post.getAuthor());
+			pw.println(" 標題  " + post.getTitle());
+			pw.println(" 時間  " + (post.getPostTime() != null ? postSDF.format(post.getPostTime()) : ""));
+			pw.println("───────────────────────────────────────");
+			pw.println(post.getContent());
+			for (Reply reply : post.getReplies()) {
+				String tag = reply.getType() == Reply.ReplyType.Positive ? "推"
+						   : reply.getType() == Reply.ReplyType.Negative ? "噓" : "→";
+				pw.println(tag + " " + reply.getID() + ": " + reply.getContent()
+						+ (reply.getPostTime() != null ? " " + replySDF.format(reply.getPostTime()) : ""));
+			}
+			if (pw.checkError()) {
+				throw new IOException("Fail to write " + path);
+			}
+		} finally {
+			pw.close();
+		}
+		
+	}
+	
+	/**
+	 * Download the post under the cursor into its file.
+	 * If the connection drops, reconnect and resume from the line after the checkpoint.
+	 * @param ptt
+	 * @param boardName
+	 * @param entry
+	 * @param savePath
+	 * @throws Exception
+	 */
+	private static void downloadPost(PTTClient ptt, String boardName, Entry entry, String savePath) throws Exception {
+		
+		PrintWriter pw = new PrintWriter(savePath + "/#" + entry.getAID() + ".txt");
+		try {
+			PostCheckpoint checkpoint = new PostCheckpoint(entry.aid, PTTClient.toLineSink(pw));
+			for (int retry=0; ; retry++) {
+				try {
+					ptt.downloadCurrentPost(checkpoint, checkpoint.getNextLine());
+					return;
+				} catch (Exception e) {
+					if (retry >= MAX_RESUME || checkpoint.getAID() == 0) {
+						throw e;
+					}
+					log.warn("Resume #" + entry.getAID() + " from line " + checkpoint.getNextLine() + " (" + e.getMessage() + ")");
+					ptt.reconnect();
+					ptt.toBoard(boardName);
+					ptt.toEntryByID(boardName, entry);
+				}
+			}
+		} finally {
+			pw.close();
+		}
+		
+	}
+	
+	/**
+	 * Keep the journal of an interrupted crawl only if its anchor still holds the same post (a purge renumbers the entries),
+	 * and anchor a new journal at the latest entry
+	 * @param ptt
+	 * @param boardName
+	 * @param journal
+	 * @return The latest entry, under the cursor
+	 * @throws Exception
+	 */
+	private static Entry resumeJournal(PTTClient ptt, String boardName, CrawlJournal journal) throws Exception {
+		
+		Entry latest = ptt.toLatestPost(boardName);
+		
+		if (journal.getDoneCount() > 0) {
+			int number = journal.getAnchorNumber();
+			Entry anchor = null;
+			if (number == latest.number) {
+				anchor = latest;
+			} else if (number > 0 && number < latest.number) {
+				anchor = ptt.toEntryByNum(boardName, number);
+				latest = ptt.toLatestPost(boardName);
+			}
+			if (anchor == null || anchor.sticky || anchor.number != number || anchor.aid != journal.getAnchorAID()) {
+				log.warn("The entries of " + boardName + " have been renumbered since the last run, discard its journal.");
+				journal.clear();
+			}
+		}
+		
+		if (journal.getDoneCount() == 0) {
+			journal.setAnchor(latest.number, latest.aid);
+		}
+		return latest;
+	}
+	
+	/**
+	 * Mark the newest post after a complete run, so that the next incremental run stops there
+	 * @param savePath
+	 * @param newestAID
+	 */
+	private static void updateHighWaterMark(String savePath, long newestAID) {
+		if (newestAID == 0) {
+			return;
+		}
+		try {
+			HighWaterMark.load(new File(savePath)).update(newestAID);
+		} catch (IOException e) {
+			log.warn("Fail to save the high-water mark: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * The results folder of the board, the same for every run so that a restarted crawl finds its journal
+	 * @param boardName
+	 * @return
+	 */
+	private static String getSavePath(String boardName) {
+		String savePath = "Results/" + boardName;
+		new File(savePath).mkdirs();
+		return savePath;
+	}
+	
+	/**
+	 * The sessions of all the accounts, sharing one keystroke rate limiter
+	 * @return
+	 */
+	private static SessionPool createSessionPool() {
+		return new SessionPool(protocol != null ? protocol : Protocol.SSH, accounts, screenRows)
+				.setServer(host, port)
+				.setRateLimiter(createRateLimiter());
+	}
+	
+	/**
+	 * The keystroke rate limiter shared by all the sessions
+	 * @return null if the rate is not limited
+	 */
+	private static KeystrokeRateLimiter createRateLimiter() {
+		return keyRate > 0 ? new KeystrokeRateLimiter(keyRate, (int) Math.ceil(keyRate)) : null;
 	}
 	
 	public static void main(String[] args) {
 		
 		parseArgs(args);
+		VirtualThreads.setEnabled(isVirtualThread);
 		
-		if (isMultiThread) {
+		if (hotBoardCount > 0) {
+			try {
+				List<String> hotBoards = PTTClient.getHotBoards(HOT_BOARDS_TIMEOUT);
+				for (String name : hotBoards.subList(0, Math.min(hotBoardCount, hotBoards.size()))) {
+					if (!boardnames.contains(name)) {
+						boardnames.add(name);
+					}
+				}
+			} catch (Exception e) {
+				log.error("Fail to get the hot boards: " + e.getMessage());
+			}
+			if (boardnames.isEmpty()) {
+				return;
+			}
+			boardname = boardnames.get(0);
+		}
+		
+		if (boardnames.size() > 1) {
+			if (isMultiThread) {
+				log.info("-m is implied by several boards, which share the sessions of all the accounts.");
+			}
+			crawlBoards(boardnames);
+		} else if (isIncremental) {
+			if (isMultiThread) {
+				log.warn("-m is ignored with -i, the new posts are few so one session walks them.");
+			}
+			crawlNewPosts();	// The new posts are few, so one session walks them
+		} else if (webThreads > 0) {
+			if (isMultiThread) {
+				log.info("-m is implied by -w, which enumerates the board with the sessions of all the accounts.");
+			}
+			crawlAllPostsHybrid();
+		} else if (isMultiThread) {
 			crawlAllPostsMultiThread();
 		} else {
 			crawlAllPosts();
@@ -0,0 +1,170 @@
+package crawler.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import crawler.client.VirtualThreads;
+
+/**
+ * A local telnet server which behaves like the screens of ptt.cc used by the crawler
+ * (login, main menu, board list, post pager), serving a fixture corpus under configurable network conditions.
+ * <p>
+ * Crawl it with {@code -host localhost:2323 -protocol Telnet} to measure throughput and resilience
+ * without touching the real site.
+ */
+public class BBSSimulator {
+	
+	private static final Logger log = Logger.getLogger(BBSSimulator.class);
+	public static final int DEFAULT_PORT = 2323;
+	
+	private final Fixtures fixtures;
+	private final NetworkConditions conditions;
+	private ServerSocket serverSocket = null;
+	private SimWebServer web = null;
+	private volatile boolean isRunning = false;
+	
+	/**
+	 * @param fixtures The boards and posts to serve
+	 * @param conditions The network conditions applied to every response
+	 */
+	public BBSSimulator(Fixtures fixtures, NetworkConditions conditions) {
+		this.fixtures = fixtures;
+		this.conditions = conditions;
+	}
+	
+	/**
+	 * Listen on the port and accept the connections in the background
+	 * @param port 0 for any free port
+	 * @return The bound port
+	 * @throws IOException
+	 */
+	public int start(int port) throws IOException {
+		
+		serverSocket = new ServerSocket(port);
+		isRunning = true;
+		
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				int sessionCount = 0;
+				while (isRunning) {
+					try {
+						Socket socket = serverSocket.accept();
+						socket.setTcpNoDelay(true);
+						SimSession session = new SimSession(socket, fixtures, conditions, web);
+						VirtualThreads.newThread("Simulator session " + (++sessionCount), session, false).start();
+					} catch (SocketException e) {
+						break;	// Stopped
+					} catch (IOException e) {
+						log.warn("Fail to accept a connection: " + e.getMessage());
+					}
+				}
+			}
+		}, "Simulator acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		
+		log.info("Simulator listening on port " + serverSocket.getLocalPort() + " (" + conditions + ")");
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * Serve the web version of the posts too, and show its URLs in the info screens (call it before {@link #start(int)})
+	 * @param port 0 for any free port
+	 * @param missingRate The share of the live posts whose page is not found
+	 * @return The bound port
+	 * @throws IOException
+	 */
+	public int startWeb(int port, double missingRate) throws IOException {
+		web = new SimWebServer(fixtures, conditions, missingRate);
+		return web.start(port);
+	}
+	
+	/**
+	 * Stop accepting connections (the open sessions end when their clients disconnect)
+	 */
+	public void stop() {
+		isRunning = false;
+		if (web != null) {
+			web.stop();
+		}
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		
+		PropertyConfigurator.configure("log4j.properties");
+		
+		int port = DEFAULT_PORT;
+		String fixturesDir = null;
+		String boardName = "Test";
+		int postCount = 1000;
+		int maxLines = 100;
+		long seed = 0;
+		long latency = 0, jitter = 0, bandwidth = 0;
+		double disconnectRate = 0;
+		int httpPort = -1;
+		double missingRate = 0;
+		
+		for (int i=0; i<args.length; i++) {
+			if (i+1 >= args.length) {
+				throw new IllegalArgumentException("No config value after " + args[i]);
+			}
+			switch (args[i]) {
+			case "-port":		port = Integer.parseInt(args[++i]); break;
+			case "-fixtures":	fixturesDir = args[++i]; break;
+			case "-board":		boardName = args[++i]; break;
+			case "-posts":		postCount = Integer.parseInt(args[++i]); break;
+			case "-lines":		maxLines = Integer.parseInt(args[++i]); break;
+			case "-seed":		seed = Long.parseLong(args[++i]); break;
+			case "-latency":	latency = Long.parseLong(args[++i]); break;
+			case "-jitter":		jitter = Long.parseLong(args[++i]); break;
+			case "-bandwidth":	bandwidth = Long.parseLong(args[++i]); break;
+			case "-disconnect":	disconnectRate = Double.parseDouble(args[++i]); break;
+			case "-http":		httpPort = Integer.parseInt(args[++i]); break;
+			case "-webmissing":	missingRate = Double.parseDouble(args[++i]); break;
+			default:
+				throw new IllegalArgumentException("Not a valid argument: " + args[i]);
+			}
+		}
+		
+		Fixtures fixtures;
+		if (fixturesDir != null) {
+			fixtures = Fixtures.load(new File(fixturesDir));
+		} else {
+			// -board A,B,C generates several boards
+			fixtures = new Fixtures();
+			String[] names = boardName.split(",");
+			for (int i=0; i<names.length; i++) {
+				fixtures.addBoard(Fixtures.generate(names[i], postCount, maxLines, seed + i).getBoard(names[i]));
+			}
+		}
+		NetworkConditions conditions = new NetworkConditions(seed)
+				.setLatency(latency)
+				.setJitter(jitter)
+				.setBandwidth(bandwidth)
+				.setDisconnectRate(disconnectRate);
+		
+		BBSSimulator simulator = new BBSSimulator(fixtures, conditions);
+		if (httpPort >= 0) {
+			simulator.startWeb(httpPort, missingRate);
+		}
+		simulator.start(port);
+		log.info("Serving " + fixtures.getBoardCount() + " board(s), press Ctrl-C to stop");
+		Thread.currentThread().join();
+		
+	}
+	
+}
@@ -0,0 +1,241 @@
+package crawler.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import crawler.base.AIDCodec;
+
+/**
+ * The boards and posts served by the simulator.
+ * <pre>
+ *  fixtures/
+ *    Test/                        A board
+ *      M.1431234567.A.1C3.txt     A post (the text shown by the pager)
+ * </pre>
+ * The author and the title are parsed from the 作者/標題 header lines of the post
+ * and the karma is the number of 推 minus the number of 噓 lines.
+ */
+public class Fixtures {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Pattern AUTHOR_PATTERN = Pattern.compile("作者\\s*:?\\s*(?<author>[A-Za-z0-9]+)");
+	private static final Pattern TITLE_PATTERN = Pattern.compile("標題\\s*:?\\s*(?<title>.*)");
+	
+	public static class Post {
+		
+		public final long aid;
+		public final String author;
+		public final String title;
+		public final int karma;			// 推 - 噓
+		public final boolean isDeleted;
+		public final List<String> lines;
+		
+		public Post(long aid, String author, String title, int karma, boolean isDeleted, List<String> lines) {
+			this.aid = aid;
+			this.author = author;
+			this.title = title;
+			this.karma = karma;
+			this.isDeleted = isDeleted;
+			this.lines = lines;
+		}
+		
+		/**
+		 * The karma column of the board list
+		 * @return
+		 */
+		public String getKarmaString() {
+			if (karma >= 100) {
+				return "爆";
+			} else if (karma <= -100) {
+				return "XX";
+			} else if (karma <= -10) {
+				return "X" + (-karma / 10);
+			} else if (karma > 0) {
+				return Integer.toString(karma);
+			}
+			return "";
+		}
+		
+	}
+	
+	public static class Board {
+		
+		public final String name;
+		public final int popularity;
+		public final List<Post> posts;		// Ordered by time
+		public final int stickies;			// The last posts are pinned again at the bottom of the list
+		
+		public Board(String name, int popularity, List<Post> posts, int stickies) {
+			this.name = name;
+			this.popularity = popularity;
+			this.posts = posts;
+			this.stickies = Math.min(stickies, posts.size());
+		}
+		
+		/**
+		 * Find the post by the packed AID
+		 * @param aid
+		 * @return The index, or -1 if not found
+		 */
+		public int indexOf(long aid) {
+			for (int i=0; i<posts.size(); i++) {
+				if (posts.get(i).aid == aid) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+	}
+	
+	private final Map<String, Board> boards = new TreeMap<String, Board>(String.CASE_INSENSITIVE_ORDER);
+	
+	public void addBoard(Board board) {
+		boards.put(board.name, board);
+	}
+	
+	/**
+	 * Get the board (case insensitive, as PTT)
+	 * @param name
+	 * @return null if not found
+	 */
+	public Board getBoard(String name) {
+		return boards.get(name);
+	}
+	
+	public int getBoardCount() {
+		return boards.size();
+	}
+	
+	/**
+	 * Load the fixture corpus
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	public static Fixtures load(File dir) throws IOException {
+		
+		File[] boardDirs = dir.listFiles();
+		if (boardDirs == null) {
+			throw new IOException("Not a directory: " + dir);
+		}
+		
+		Fixtures fixtures = new Fixtures();
+		for (File boardDir : boardDirs) {
+			
+			File[] files = boardDir.listFiles();
+			if (files == null) {
+				continue;
+			}
+			
+			List<Post> posts = new ArrayList<Post>();
+			for (File file : files) {
+				long aid = AIDCodec.fromFilename(file.getName());
+				if (aid == 0) {
+					continue;
+				}
+				List<String> lines = Files.readAllLines(file.toPath(), UTF8);
+				posts.add(parsePost(aid, lines));
+			}
+			Collections.sort(posts, new Comparator<Post>() {
+				@Override
+				public int compare(Post a, Post b) {
+					return Long.compare(AIDCodec.getTimestamp(a.aid), AIDCodec.getTimestamp(b.aid));
+				}
+			});
+			
+			fixtures.addBoard(new Board(boardDir.getName(), posts.size(), posts, 0));
+			
+		}
+		
+		return fixtures;
+	}
+	
+	private static Post parsePost(long aid, List<String> lines) {
+		String author = "guest";
+		String title = "";
+		int karma = 0;
+		for (String line : lines) {
+			Matcher m;
+			if (title.isEmpty() && (m = TITLE_PATTERN.matcher(line)).find()) {
+				title = m.group("title").trim();
+			} else if (author.equals("guest") && (m = AUTHOR_PATTERN.matcher(line)).find()) {
+				author = m.group("author");
+			} else if (line.startsWith("推 ")) {
+				karma++;
+			} else if (line.startsWith("噓 ")) {
+				karma--;
+			}
+		}
+		return new Post(aid, author, title, karma, false, lines);
+	}
+	
+	/**
+	 * Generate a board of synthetic posts (the same seed generates the same board)
+	 * @param boardName
+	 * @param postCount
+	 * @param maxLines The maximum number of lines of a post
+	 * @param seed
+	 * @return
+	 */
+	public static Fixtures generate(String boardName, int postCount, int maxLines, long seed) {
+		
+		SimpleDateFormat postSDF = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.ENGLISH);
+		Random random = new Random(seed);
+		List<Post> posts = new ArrayList<Post>(postCount);
+		long timestamp = 1420070400;	// 2015-01-01
+		
+		for (int i=1; i<=postCount; i++) {
+			
+			timestamp += 60 + random.nextInt(3600);
+			long aid = AIDCodec.fromFilename(String.format("M.%d.A.%03X", timestamp, random.nextInt(0x1000)));
+			String author = "user" + random.nextInt(500);
+			
+			// Every 20th post has been deleted
+			if (i % 20 == 0) {
+				posts.add(new Post(aid, "-", "(本文已被刪除) [" + author + "]", 0, true, Collections.<String>emptyList()));
+				continue;
+			}
+			
+			String title = "[問卦] 第 " + i + " 篇測試文章";
+			int lineCount = 1 + random.nextInt(maxLines);
+			int karma = 0;
+			List<String> lines = new ArrayList<String>(lineCount + 4);
+			lines.addAll(Arrays.asList(
+					" 作者  " + author + " (Tester)                                  看板  " + boardName,
+					" 標題  " + title,
+					" 時間  " + postSDF.format(AIDCodec.getPostTime(aid)),
+					"───────────────────────────────────────"));
+			for (int j=1; j<=lineCount; j++) {
+				if (j > lineCount - 5 && random.nextInt(3) == 0) {
+					boolean up = random.nextInt(4) != 0;
+					karma += up ? 1 : -1;
+					lines.add((up ? "推 " : "噓 ") + "user" + random.nextInt(500) + ": 第 " + j + " 行推文");
+				} else {
+					lines.add("第 " + i + " 篇的第 " + j + " 行內容");
+				}
+			}
+			posts.add(new Post(aid, author, title, karma, false, lines));
+			
+		}
+		
+		Fixtures fixtures = new Fixtures();
+		fixtures.addBoard(new Board(boardName, 100 + random.nextInt(10000), posts, Math.min(2, postCount)));
+		return fixtures;
+	}
+	
+}
@@ -0,0 +1,101 @@
+package crawler.sim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Shape the output of the simulator: latency and jitter before each response,
+ * a bandwidth cap while it is written, and disconnections injected at random.
+ */
+public class NetworkConditions {
+	
+	private long latency = 0;			// Milliseconds
+	private long jitter = 0;			// Milliseconds
+	private long bandwidth = 0;			// Bytes per second (0 for no limit)
+	private double disconnectRate = 0;	// Probability per response
+	private final Random random;
+	
+	public NetworkConditions() {
+		this(System.nanoTime());
+	}
+	
+	/**
+	 * @param seed The seed of the jitter and the disconnections
+	 */
+	public NetworkConditions(long seed) {
+		this.random = new Random(seed);
+	}
+	
+	public NetworkConditions setLatency(long latency) {
+		this.latency = latency;
+		return this;
+	}
+	
+	public NetworkConditions setJitter(long jitter) {
+		this.jitter = jitter;
+		return this;
+	}
+	
+	public NetworkConditions setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+		return this;
+	}
+	
+	public NetworkConditions setDisconnectRate(double disconnectRate) {
+		this.disconnectRate = disconnectRate;
+		return this;
+	}
+	
+	/**
+	 * Write one response under the conditions
+	 * @param out
+	 * @param data
+	 * @throws IOException An injected disconnection
+	 */
+	public void transmit(OutputStream out, byte[] data) throws IOException {
+		
+		long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+		boolean disconnect = disconnectRate > 0 && random.nextDouble() < disconnectRate;
+		sleep(delay);
+		if (disconnect) {
+			throw new IOException("Injected disconnection");
+		}
+		
+		if (bandwidth <= 0) {
+			out.write(data);
+			out.flush();
+			return;
+		}
+		
+		// Write a slice every 50 ms
+		int slice = (int) Math.max(64, bandwidth / 20);
+		for (int off = 0; off < data.length; off += slice) {
+			int len = Math.min(slice, data.length - off);
+			out.write(data, off, len);
+			out.flush();
+			if (off + len < data.length) {
+				sleep(len * 1000L / bandwidth);
+			}
+		}
+		
+	}
+	
+	private static void sleep(long millis) throws IOException {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+	}
+	
+	public String toString() {
+		return String.format("latency %d ms, jitter %d ms, bandwidth %s, disconnect rate %.4f",
+				latency, jitter, bandwidth > 0 ? bandwidth + " B/s" : "unlimited", disconnectRate);
+	}
+	
+}
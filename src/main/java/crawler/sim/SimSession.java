@@ -0,0 +1,705 @@
+package crawler.sim;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+import crawler.base.AIDCodec;
+
+/**
+ * One telnet connection of the simulator. Keys are handled as PTT does and the screen is redrawn
+ * (one response) only when no more input is pending, so pipelined keys get coalesced output as on ptt.cc.
+ */
+class SimSession implements Runnable {
+	
+	private static final Logger log = Logger.getLogger(SimSession.class);
+	
+	// Telnet
+	private static final int IAC = 255, DONT = 254, DO = 253, WONT = 252, WILL = 251, SB = 250, SE = 240;
+	private static final int OPT_ECHO = 1, OPT_SGA = 3, OPT_NAWS = 31;
+	
+	// Keys
+	private static final int KEY_NONE = -2;
+	private static final int KEY_ENTER = '\r';
+	private static final int KEY_UP = 0x100, KEY_DOWN = 0x101, KEY_RIGHT = 0x102, KEY_LEFT = 0x103;
+	private static final int KEY_HOME = 0x104, KEY_END = 0x105, KEY_PAGE_UP = 0x106, KEY_PAGE_DOWN = 0x107;
+	private static final int CTRL_B = 0x02, CTRL_F = 0x06, CTRL_L = 0x0C, BACKSPACE = 0x08, DELETE = 0x7F;
+	
+	private static final int MIN_ROWS = 24;
+	private static final int MAX_ROWS = 100;
+	
+	private static final String CLEAR = "\u001B[H\u001B[2J";
+	private static final String HEADER_COLOR = "\u001B[1;37;44m";
+	private static final String FOOTER_COLOR = "\u001B[34;47m";
+	private static final String RESET_COLOR = "\u001B[m";
+	
+	private static enum Mode {
+		Username, Password, Welcome, MainMenu, Goodbye, SelectBoard,
+		Board, GotoEntry, SearchAID, Info, Help,
+		Post, GotoLine
+	}
+	
+	private static final String[] MENU = {
+		"(A)nnounce       【 精華公佈欄 】",
+		"(F)avorite       【 我 的 最愛 】",
+		"(C)lass          【 分組討論區 】",
+		"(M)ail           【 私人信件區 】",
+		"(T)alk           【 休閒聊天區 】",
+		"(U)ser           【 個人設定區 】",
+		"(X)yz            【 系統資訊區 】",
+		"(P)lay           【 娛樂與休閒 】",
+		"(N)amelist       【 編特別名單 】",
+		"(G)oodbye           離開，再見…"
+	};
+	private static final int MENU_GOODBYE = MENU.length - 1;
+	
+	private final Socket socket;
+	private final Fixtures fixtures;
+	private final NetworkConditions conditions;
+	private final SimWebServer web;			// null without the web version
+	private InputStream in = null;
+	private OutputStream out = null;
+	
+	private int rows = MIN_ROWS;
+	private Mode mode = Mode.Username;
+	private final StringBuilder input = new StringBuilder();
+	private boolean lastCR = false;
+	private boolean isClosing = false;
+	private String username = "";
+	private int menuCursor = 0;
+	
+	// Board list
+	private Fixtures.Board board = null;
+	private int cursor = 0;
+	
+	// Pager
+	private Fixtures.Post post = null;
+	private int topLine = 1;
+	
+	SimSession(Socket socket, Fixtures fixtures, NetworkConditions conditions, SimWebServer web) {
+		this.socket = socket;
+		this.fixtures = fixtures;
+		this.conditions = conditions;
+		this.web = web;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			
+			in = new BufferedInputStream(socket.getInputStream());
+			out = socket.getOutputStream();
+			
+			// Echo and suppress go ahead by the server, and ask for the window size
+			out.write(new byte[] {
+				(byte) IAC, (byte) WILL, OPT_ECHO,
+				(byte) IAC, (byte) WILL, OPT_SGA,
+				(byte) IAC, (byte) DO, OPT_NAWS
+			});
+			respond();
+			
+			int key;
+			while (!isClosing && (key = readKey()) != -1) {
+				if (key != KEY_NONE) {
+					handleKey(key);
+				}
+				if (!isClosing && in.available() == 0) {
+					respond();
+				}
+			}
+			
+		} catch (IOException e) {
+			log.debug("Session closed: " + e.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+	}
+	
+	/**
+	 * Read a key, handling the telnet commands and the escape sequences
+	 * @return The key, KEY_NONE or -1 at the end of the stream
+	 * @throws IOException
+	 */
+	private int readKey() throws IOException {
+		
+		int b = in.read();
+		if (b == -1) {
+			return -1;
+		}
+		
+		// CR LF and CR NUL are one Enter
+		boolean afterCR = lastCR;
+		lastCR = (b == '\r');
+		if (afterCR && (b == '\n' || b == 0)) {
+			return KEY_NONE;
+		}
+		
+		switch (b) {
+		case IAC:
+			return readTelnetCommand();
+		case '\n':
+			return KEY_ENTER;
+		case 0x1B:
+			return readEscapeSequence();
+		default:
+			return b;
+		}
+		
+	}
+	
+	private int readTelnetCommand() throws IOException {
+		int command = in.read();
+		switch (command) {
+		case IAC:
+			return IAC;
+		case DO:
+		case DONT:
+		case WILL:
+		case WONT:
+			in.read();	// The option (every answer of the client is accepted)
+			return KEY_NONE;
+		case SB:
+			int option = in.read();
+			int[] data = new int[8];
+			int len = 0, c;
+			while ((c = in.read()) != -1) {
+				if (c == IAC) {
+					c = in.read();
+					if (c == SE || c == -1) {
+						break;
+					}
+				}
+				if (len < data.length) {
+					data[len++] = c;
+				}
+			}
+			if (option == OPT_NAWS && len >= 4) {
+				rows = Math.max(MIN_ROWS, Math.min(MAX_ROWS, (data[2] << 8) | data[3]));
+			}
+			return KEY_NONE;
+		default:
+			return KEY_NONE;
+		}
+	}
+	
+	private int readEscapeSequence() throws IOException {
+		in.mark(8);
+		int c = in.read();
+		if (c != '[' && c != 'O') {
+			in.reset();
+			return 0x1B;
+		}
+		StringBuilder param = new StringBuilder();
+		while ((c = in.read()) != -1 && param.length() < 8) {
+			if (c >= '0' && c <= '9' || c == ';') {
+				param.append((char) c);
+				continue;
+			}
+			switch (c) {
+			case 'A': return KEY_UP;
+			case 'B': return KEY_DOWN;
+			case 'C': return KEY_RIGHT;
+			case 'D': return KEY_LEFT;
+			case 'H': return KEY_HOME;
+			case 'F': return KEY_END;
+			case '~':
+				switch (param.toString()) {
+				case "1": return KEY_HOME;
+				case "4": return KEY_END;
+				case "5": return KEY_PAGE_UP;
+				case "6": return KEY_PAGE_DOWN;
+				}
+				return KEY_NONE;
+			default:
+				return KEY_NONE;
+			}
+		}
+		return KEY_NONE;
+	}
+	
+	private void handleKey(int key) throws IOException {
+		
+		switch (mode) {
+		
+		case Username:
+			if (key == KEY_ENTER) {
+				username = input.toString().replace(",", "").trim();
+				input.setLength(0);
+				if (!username.isEmpty()) {
+					mode = Mode.Password;
+				}
+			} else {
+				editInput(key);
+			}
+			break;
+		
+		case Password:
+			if (key == KEY_ENTER) {
+				input.setLength(0);
+				mode = Mode.Welcome;
+			} else {
+				editInput(key);
+			}
+			break;
+		
+		case Welcome:
+			mode = Mode.MainMenu;
+			break;
+		
+		case MainMenu:
+			handleMenuKey(key);
+			break;
+		
+		case Goodbye:
+			if (key == KEY_ENTER) {
+				if (input.toString().trim().toLowerCase().startsWith("y")) {
+					goodbye();
+				} else {
+					mode = Mode.MainMenu;
+				}
+				input.setLength(0);
+			} else {
+				editInput(key);
+			}
+			break;
+		
+		case SelectBoard:
+			if (key == KEY_ENTER) {
+				Fixtures.Board selected = fixtures.getBoard(input.toString().trim());
+				input.setLength(0);
+				if (selected == null) {
+					mode = Mode.MainMenu;
+				} else {
+					board = selected;
+					cursor = Math.max(0, getItemCount() - 1);
+					mode = Mode.Board;
+				}
+			} else {
+				editInput(key);
+			}
+			break;
+		
+		case Board:
+			handleBoardKey(key);
+			break;
+		
+		case GotoEntry:
+			if (key >= '0' && key <= '9') {
+				if (input.length() < 9) {
+					input.append((char) key);
+				}
+			} else {
+				if (key == KEY_ENTER && input.length() > 0) {
+					cursor = clamp(Integer.parseInt(input.toString()) - 1, 0, board.posts.size() - 1);
+				}
+				input.setLength(0);
+				mode = Mode.Board;
+			}
+			break;
+		
+		case SearchAID:
+			if (key == KEY_ENTER) {
+				int index = board.indexOf(AIDCodec.decode(input.toString().trim()));
+				if (index >= 0) {
+					cursor = index;
+				}
+				input.setLength(0);
+				mode = Mode.Board;
+			} else {
+				editInput(key);
+			}
+			break;
+		
+		case Info:
+		case Help:
+			mode = Mode.Board;
+			break;
+		
+		case Post:
+			handlePagerKey(key);
+			break;
+		
+		case GotoLine:
+			if (key >= '0' && key <= '9') {
+				if (input.length() < 9) {
+					input.append((char) key);
+				}
+			} else {
+				if (key == KEY_ENTER && input.length() > 0) {
+					topLine = clamp(Integer.parseInt(input.toString()), 1, getLastTopLine());
+				}
+				input.setLength(0);
+				mode = Mode.Post;
+			}
+			break;
+			
+		}
+		
+	}
+	
+	private void handleMenuKey(int key) {
+		switch (key) {
+		case KEY_UP:
+			menuCursor = (menuCursor + MENU.length - 1) % MENU.length;
+			break;
+		case KEY_DOWN:
+			menuCursor = (menuCursor + 1) % MENU.length;
+			break;
+		case 's':
+		case 'S':
+			mode = Mode.SelectBoard;
+			break;
+		case 'e':
+		case 'E':
+		case 'q':
+		case KEY_LEFT:
+			menuCursor = MENU_GOODBYE;
+			break;
+		case KEY_ENTER:
+		case KEY_RIGHT:
+			if (menuCursor == MENU_GOODBYE) {
+				mode = Mode.Goodbye;
+			}
+			break;
+		default:
+			// A letter moves the cursor to its item
+			for (int i=0; i<MENU.length; i++) {
+				if (key < 0x80 && Character.toUpperCase((char) key) == MENU[i].charAt(1)) {
+					menuCursor = i;
+				}
+			}
+			break;
+		}
+	}
+	
+	private void handleBoardKey(int key) {
+		int last = getItemCount() - 1;
+		int pageSize = getListRows();
+		switch (key) {
+		case KEY_UP:
+		case 'k':
+		case 'p':
+			cursor = Math.max(0, cursor - 1);
+			break;
+		case KEY_DOWN:
+		case 'j':
+		case 'n':
+			cursor = Math.max(0, Math.min(last, cursor + 1));
+			break;
+		case KEY_PAGE_UP:
+		case CTRL_B:
+			cursor = Math.max(0, cursor - pageSize);
+			break;
+		case KEY_PAGE_DOWN:
+		case CTRL_F:
+		case ' ':
+			cursor = Math.max(0, Math.min(last, cursor + pageSize));
+			break;
+		case KEY_HOME:
+			cursor = 0;
+			break;
+		case KEY_END:
+		case '$':
+			cursor = Math.max(0, last);
+			break;
+		case '#':
+			mode = Mode.SearchAID;
+			break;
+		case 'Q':
+			// As PTT, a deleted post has no info box
+			if (last >= 0 && !getItem(cursor).isDeleted) {
+				mode = Mode.Info;
+			}
+			break;
+		case 'h':
+			mode = Mode.Help;
+			break;
+		case 'r':
+		case 'l':
+		case KEY_RIGHT:
+		case KEY_ENTER:
+			if (last < 0) {
+				break;
+			}
+			Fixtures.Post selected = getItem(cursor);
+			if (!selected.isDeleted) {
+				post = selected;
+				topLine = 1;
+				mode = Mode.Post;
+			}
+			break;
+		case 'q':
+		case KEY_LEFT:
+			mode = Mode.MainMenu;
+			break;
+		case 's':
+			mode = Mode.SelectBoard;
+			break;
+		default:
+			if (key >= '0' && key <= '9') {
+				input.setLength(0);
+				input.append((char) key);
+				mode = Mode.GotoEntry;
+			}
+			break;
+		}
+	}
+	
+	private void handlePagerKey(int key) {
+		if (post.lines.isEmpty()) {
+			mode = Mode.Board;	// 此文章無內容 [按任意鍵繼續]
+			return;
+		}
+		int pageSize = getPageLines();
+		switch (key) {
+		case CTRL_F:
+		case KEY_PAGE_DOWN:
+		case ' ':
+			topLine = Math.min(getLastTopLine(), topLine + pageSize);
+			break;
+		case CTRL_B:
+		case KEY_PAGE_UP:
+			topLine = Math.max(1, topLine - pageSize);
+			break;
+		case KEY_DOWN:
+		case 'j':
+		case KEY_ENTER:
+			topLine = Math.min(getLastTopLine(), topLine + 1);
+			break;
+		case KEY_UP:
+		case 'k':
+			topLine = Math.max(1, topLine - 1);
+			break;
+		case KEY_HOME:
+			topLine = 1;
+			break;
+		case KEY_END:
+		case '$':
+			topLine = getLastTopLine();
+			break;
+		case ':':
+			input.setLength(0);
+			mode = Mode.GotoLine;
+			break;
+		case 'q':
+		case KEY_LEFT:
+			mode = Mode.Board;
+			break;
+		}
+	}
+	
+	private void editInput(int key) {
+		if (key == BACKSPACE || key == DELETE) {
+			if (input.length() > 0) {
+				input.setLength(input.length() - 1);
+			}
+		} else if (key >= 0x20 && key < 0x7F) {
+			input.append((char) key);
+		}
+	}
+	
+	private void goodbye() throws IOException {
+		String[] screen = new String[rows];
+		screen[rows / 2] = "                    期待您下一次的光臨！";
+		conditions.transmit(out, toBytes(screen));
+		isClosing = true;
+	}
+	
+	/**
+	 * Redraw the screen of the current mode as one response
+	 * @throws IOException
+	 */
+	private void respond() throws IOException {
+		conditions.transmit(out, toBytes(render()));
+	}
+	
+	private String[] render() {
+		
+		String[] screen = new String[rows];
+		int footer = rows - 1;
+		
+		switch (mode) {
+		
+		case Username:
+		case Password:
+			screen[rows / 2 - 2] = "                         批踢踢實業坊 (模擬器)";
+			screen[rows - 4] = "請輸入代號，或以 guest 參觀，或以 new 註冊: " + (mode == Mode.Username ? input : username);
+			if (mode == Mode.Password) {
+				screen[rows - 3] = "請輸入您的密碼: ";
+			}
+			break;
+		
+		case Welcome:
+			screen[rows / 2] = "                         歡迎您再度拜訪 " + username;
+			screen[footer] = "                        請按任意鍵繼續";
+			break;
+		
+		case MainMenu:
+		case Goodbye:
+		case SelectBoard:
+			screen[0] = HEADER_COLOR + "【主功能表】                        批踢踢實業坊" + RESET_COLOR;
+			for (int i=0; i<MENU.length; i++) {
+				screen[i + 3] = (i == menuCursor ? "          > " : "            ") + MENU[i];
+			}
+			screen[footer] = FOOTER_COLOR + "[1/01 星期四 12:00] 線上 1 人, 我是" + username + "  [呼叫器]打開 " + RESET_COLOR;
+			if (mode == Mode.Goodbye) {
+				screen[footer - 1] = "您確定要離開【 批踢踢實業坊 】嗎(Y/N)？[N] " + input;
+			} else if (mode == Mode.SelectBoard) {
+				screen[1] = "請輸入看板名稱(按空白鍵自動搜尋): " + input;
+			}
+			break;
+		
+		case Board:
+		case GotoEntry:
+		case SearchAID:
+		case Info:
+			renderBoard(screen);
+			if (mode == Mode.GotoEntry) {
+				screen[footer] = "跳至第幾項: " + input;
+			} else if (mode == Mode.SearchAID) {
+				screen[footer] = "搜尋文章代碼: #" + input;
+			} else if (mode == Mode.Info) {
+				renderInfo(screen);
+			}
+			break;
+		
+		case Help:
+			screen[0] = HEADER_COLOR + "【看板說明】" + RESET_COLOR;
+			screen[2] = "  (p/k)(n/j) 上下移動  (PgUp/PgDn) 翻頁  ($) 最後一篇  (數字) 跳至該篇";
+			screen[3] = "  (#) 搜尋文章代碼     (Q) 文章資訊      (r/→) 閱讀文章";
+			screen[footer] = "                        請按任意鍵繼續";
+			break;
+		
+		case Post:
+		case GotoLine:
+			renderPost(screen);
+			if (mode == Mode.GotoLine) {
+				screen[footer] = "跳至此行: " + input;
+			}
+			break;
+			
+		}
+		
+		return screen;
+	}
+	
+	private void renderBoard(String[] screen) {
+		
+		int listRows = getListRows();
+		int top = (cursor / listRows) * listRows;
+		
+		screen[0] = HEADER_COLOR + "【板主:SYSOP】                 看板《" + board.name + "》" + RESET_COLOR;
+		screen[1] = "[←]離開 [→]閱讀 [Ctrl-P]發表文章 [d]刪除 [z]精華區 [i]看板資訊/設定 [h]說明";
+		screen[2] = "   編號    日 期 作  者       文  章  標  題                       人氣:" + board.popularity;
+		
+		for (int i = 0; i < listRows && top + i < getItemCount(); i++) {
+			int index = top + i;
+			Fixtures.Post item = getItem(index);
+			boolean isSticky = index >= board.posts.size();
+			String karma = item.getKarmaString();
+			screen[3 + i] = String.format("%s%6s  %s%5s %-12s %s",
+					index == cursor ? ">" : " ",
+					isSticky ? "★ " : Integer.toString(index + 1),
+					karma.equals("爆") ? karma : String.format("%2s", karma),
+					AIDCodec.getListDate(item.aid),
+					item.author,
+					item.isDeleted ? item.title : "□ " + item.title);
+		}
+		
+		screen[rows - 1] = FOOTER_COLOR + "  文章選讀  (y)回應(X)推文(^X)轉錄 (=[]<>)相關主題(/?a)找標題/作者 (b)進板畫面  " + RESET_COLOR;
+		
+	}
+	
+	private void renderInfo(String[] screen) {
+		Fixtures.Post item = getItem(cursor);
+		int row = Math.max(3, Math.min(cursor % getListRows() + 4, rows - 8));
+		screen[row] = "┌─────────────────────────────────────┐";
+		screen[row + 1] = "│ 文章代碼(AID): #" + AIDCodec.encode(item.aid) + " (" + board.name + ") [ptt.cc] " + item.title;
+		screen[row + 2] = "│ 文章網址: " + (web != null ? web.getURL(board.name, item.aid) : AIDCodec.toURL(board.name, item.aid)) + " │";
+		screen[row + 3] = "│ 這一篇文章值 0 Ptt幣                                                         │";
+		screen[row + 4] = "└─────────────────────────────────────┘";
+		screen[rows - 1] = "                        請按任意鍵繼續";
+	}
+	
+	private void renderPost(String[] screen) {
+		
+		int total = post.lines.size();
+		if (total == 0) {
+			screen[rows / 2] = "                    此文章無內容";
+			screen[rows - 1] = "                        請按任意鍵繼續";
+			return;
+		}
+		
+		int pageLines = getPageLines();
+		int bottom = Math.min(total, topLine + pageLines - 1);
+		for (int line = topLine; line <= bottom; line++) {
+			screen[line - topLine] = post.lines.get(line - 1);
+		}
+		
+		int pages = (total + pageLines - 1) / pageLines;
+		int page = Math.min(pages, (topLine - 1) / pageLines + 1);
+		int percent = bottom * 100 / total;
+		screen[rows - 1] = FOOTER_COLOR + String.format("  瀏覽 第 %d/%d 頁 (%3d%%)  目前顯示: 第 %02d~%02d 行  (y)回應(X%%)推文(h)說明(←)離開 ",
+				page, pages, percent, topLine, bottom) + RESET_COLOR;
+		
+	}
+	
+	private byte[] toBytes(String[] screen) throws IOException {
+		StringBuilder sb = new StringBuilder(CLEAR);
+		for (int i=0; i<screen.length; i++) {
+			if (screen[i] != null) {
+				sb.append("\u001B[").append(i + 1).append(";1H").append(screen[i]);
+			}
+		}
+		sb.append("\u001B[").append(rows).append(";80H");
+		return sb.toString().getBytes("UTF-8");
+	}
+	
+	/**
+	 * The number of the entry rows between the header rows and the footer
+	 * @return
+	 */
+	private int getListRows() {
+		return rows - 4;
+	}
+	
+	/**
+	 * The number of the post lines above the footer
+	 * @return
+	 */
+	private int getPageLines() {
+		return rows - 1;
+	}
+	
+	private int getLastTopLine() {
+		return Math.max(1, post.lines.size() - getPageLines() + 1);
+	}
+	
+	/**
+	 * The posts followed by the sticky posts
+	 * @return
+	 */
+	private int getItemCount() {
+		return board.posts.size() + board.stickies;
+	}
+	
+	private Fixtures.Post getItem(int index) {
+		if (index < board.posts.size()) {
+			return board.posts.get(index);
+		}
+		return board.posts.get(board.posts.size() - board.stickies + index - board.posts.size());
+	}
+	
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+	
+}
@@ -0,0 +1,170 @@
+package crawler.sim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import crawler.base.AIDCodec;
+import crawler.client.VirtualThreads;
+
+/**
+ * The web version of the simulated boards ({@code /bbs/<board>/<filename>.html}), in the markup of www.ptt.cc
+ * read by {@code PostAnalysiser.parsePost(Document, String)}.
+ * The deleted posts and a share of the others are not found, so the fallback of the crawler to the terminal is exercised.
+ */
+class SimWebServer {
+	
+	private static final Logger log = Logger.getLogger(SimWebServer.class);
+	private static final Pattern PUSH_PATTERN = Pattern.compile("^(?<tag>推|噓|→) (?<id>[^:]+):(?<content>.*)$");
+	private static final int HEADER_LINES = 5;	// The header of a post ends with a line of ─ within these lines
+	
+	private final Fixtures fixtures;
+	private final NetworkConditions conditions;
+	private final double missingRate;
+	private HttpServer server = null;
+	private ExecutorService executor = null;
+	
+	/**
+	 * @param fixtures
+	 * @param conditions The network conditions applied to every response
+	 * @param missingRate The share of the live posts whose page is not found
+	 */
+	SimWebServer(Fixtures fixtures, NetworkConditions conditions, double missingRate) {
+		this.fixtures = fixtures;
+		this.conditions = conditions;
+		this.missingRate = missingRate;
+	}
+	
+	/**
+	 * Listen on the port
+	 * @param port 0 for any free port
+	 * @return The bound port
+	 * @throws IOException
+	 */
+	int start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		executor = VirtualThreads.newExecutor(16);
+		server.setExecutor(executor);
+		server.createContext("/bbs/", exchange -> {
+			try {
+				handle(exchange);
+			} catch (IOException e) {
+				log.debug("Web response aborted: " + e.getMessage());
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+		log.info("Simulator web version on port " + getPort() + " (missing rate " + missingRate + ")");
+		return getPort();
+	}
+	
+	void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+	
+	int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * The URL of a post shown in its info screen
+	 * @param boardName
+	 * @param aid
+	 * @return
+	 */
+	String getURL(String boardName, long aid) {
+		return "http://localhost:" + getPort() + "/bbs/" + boardName + "/" + AIDCodec.toFilename(aid) + ".html";
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		
+		String path = exchange.getRequestURI().getPath();
+		long aid = AIDCodec.fromURL(path);
+		String boardName = AIDCodec.getBoardFromURL(path);
+		Fixtures.Board board = boardName != null ? fixtures.getBoard(boardName) : null;
+		int index = board != null && aid != 0 ? board.indexOf(aid) : -1;
+		Fixtures.Post post = index >= 0 ? board.posts.get(index) : null;
+		
+		// The missing pages are chosen by the AID, so every request of a post gets the same answer
+		if (post == null || post.isDeleted || new Random(aid).nextDouble() < missingRate) {
+			byte[] body = "404 - Not Found.".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(404, body.length);
+			conditions.transmit(exchange.getResponseBody(), body);
+			return;
+		}
+		
+		byte[] body = render(board, post, getURL(board.name, aid)).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		conditions.transmit(exchange.getResponseBody(), body);
+		
+	}
+	
+	private static String render(Fixtures.Board board, Fixtures.Post post, String url) {
+		
+		SimpleDateFormat postSDF = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.ENGLISH);
+		SimpleDateFormat pushSDF = new SimpleDateFormat("MM/dd HH:mm");
+		String postTime = postSDF.format(AIDCodec.getPostTime(post.aid));
+		String pushTime = pushSDF.format(AIDCodec.getPostTime(post.aid));
+		
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>").append(escape(post.title)).append("</title></head><body>\n");
+		html.append("<div id=\"main-content\" class=\"bbs-screen bbs-content\">");
+		appendMeta(html, "article-metaline", "作者", post.author + " (" + post.author + ")");
+		appendMeta(html, "article-metaline-right", "看板", board.name);
+		appendMeta(html, "article-metaline", "標題", post.title);
+		appendMeta(html, "article-metaline", "時間", postTime);
+		
+		// Skip the header of the pager, and render the pushes as the web version
+		List<String> lines = post.lines;
+		int start = 0;
+		for (int i=0; i<Math.min(HEADER_LINES, lines.size()); i++) {
+			if (lines.get(i).startsWith("─")) {
+				start = i + 1;
+			}
+		}
+		StringBuilder pushes = new StringBuilder();
+		for (String line : lines.subList(start, lines.size())) {
+			Matcher m = PUSH_PATTERN.matcher(line);
+			if (m.find()) {
+				pushes.append("<div class=\"push\"><span class=\"hl push-tag\">").append(m.group("tag")).append(" </span>")
+					  .append("<span class=\"f3 hl push-userid\">").append(escape(m.group("id"))).append("</span>")
+					  .append("<span class=\"f3 push-content\">: ").append(escape(m.group("content").trim())).append("</span>")
+					  .append("<span class=\"push-ipdatetime\"> ").append(pushTime).append("\n</span></div>");
+			} else {
+				html.append(escape(line)).append("\n");
+			}
+		}
+		html.append("--\n<span class=\"f2\">※ 發信站: 批踢踢實業坊(ptt.cc), 來自: 127.0.0.1\n</span>");
+		html.append("<span class=\"f2\">※ 文章網址: ").append(escape(url)).append("\n</span>");
+		html.append(pushes);
+		html.append("</div>\n</body></html>\n");
+		return html.toString();
+	}
+	
+	private static void appendMeta(StringBuilder html, String className, String tag, String value) {
+		html.append("<div class=\"").append(className).append("\"><span class=\"article-meta-tag\">").append(tag)
+			.append("</span><span class=\"article-meta-value\">").append(escape(value)).append("</span></div>");
+	}
+	
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+	
+}